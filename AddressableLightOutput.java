@@ -0,0 +1,34 @@
+package betterlights;
+
+import edu.wpi.first.wpilibj.AddressableLED;
+import edu.wpi.first.wpilibj.AddressableLEDBuffer;
+
+/** Sends frames to a real LED strip through WPILib. This is the output the scheduler uses by default. */
+public class AddressableLightOutput implements LightOutput
+{
+    private final AddressableLED strip;
+    private final AddressableLEDBuffer buffer;
+
+    public AddressableLightOutput(int port, int length)
+    {
+        strip = new AddressableLED(port);
+        strip.setLength(length);
+        buffer = new AddressableLEDBuffer(length);
+
+        strip.start();
+        strip.setData(buffer);
+    }
+
+    @Override
+    public void send(LightBuffer frame)
+    {
+        frame.writeTo(buffer);
+        strip.setData(buffer);
+    }
+
+    @Override
+    public void close()
+    {
+        strip.close();
+    }
+}
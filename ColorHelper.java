@@ -1,14 +1,23 @@
 package betterlights;
 
+import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
 
 public final class ColorHelper
 {
+    // The exact value a Color stores for each 8-bit channel, so packed math lines up with Color math.
+    private static final double[] kUnitChannels = new double[256];
+    static
+    {
+        for (int i = 0; i < 256; i++) kUnitChannels[i] = new Color(i, 0, 0).red;
+    }
+
     public static double absMod(double val, double mod)
     {
-        while (val < 0) val += mod;
-        while (val >= mod) val -= mod;
-        return val;
+        double result = val % mod;
+        if (result < 0) result += mod;
+        if (result >= mod) result -= mod; // Adding a tiny negative number to mod can round up to mod itself.
+        return result;
     }
     public static double clamp(double val, double min, double max)
     {
@@ -20,19 +29,50 @@ public final class ColorHelper
     {
         if (t <= 0) return a;
         else if (t >= 1) return b;
+        else return unpack(GammaTable.of(gamma).lerp(pack(a), pack(b), t));
+    }
 
-        double invGamma = 1 / gamma;
-        double aGammaR = Math.pow(a.red, gamma),   bGammaR = Math.pow(b.red, gamma),
-               aGammaG = Math.pow(a.green, gamma), bGammaG = Math.pow(b.green, gamma),
-               aGammaB = Math.pow(a.blue, gamma),  bGammaB = Math.pow(b.blue, gamma);
+    // #region Packed colors.
+    // A packed color stores its red, green and blue channels as 0xRRGGBB in a single int.
 
-        double cGammaR = aGammaR + t * (bGammaR - aGammaR),
-               cGammaG = aGammaG + t * (bGammaG - aGammaG),
-               cGammaB = aGammaB + t * (bGammaB - aGammaB);
-        return new Color(
-            Math.pow(cGammaR, invGamma),
-            Math.pow(cGammaG, invGamma),
-            Math.pow(cGammaB, invGamma)
-        );
+    /** Packs three 8-bit channels into a single int. */
+    public static int pack(int r, int g, int b)
+    {
+        return ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
+    }
+    /** Packs a color into a single int, truncating each channel the same way LEDWriter.setLED() does. */
+    public static int pack(Color color)
+    {
+        return pack((int)(color.red * 255), (int)(color.green * 255), (int)(color.blue * 255));
+    }
+    /** Unpacks a packed color into a new Color object. */
+    public static Color unpack(int rgb)
+    {
+        return new Color(red(rgb), green(rgb), blue(rgb));
+    }
+
+    public static int red(int rgb) { return (rgb >> 16) & 0xFF; }
+    public static int green(int rgb) { return (rgb >> 8) & 0xFF; }
+    public static int blue(int rgb) { return rgb & 0xFF; }
+
+    /** Converts an 8-bit channel into the value between 0 and 1 that a Color would store for it. */
+    public static double toUnit(int channel) { return kUnitChannels[channel]; }
+    /** Converts a channel between 0 and 1 into 8 bits, rounding it like a Color would before truncating. */
+    public static int toByte(double unit)
+    {
+        return (int)(clamp(Math.ceil(unit * 4096) / 4096, 0, 1) * 255);
+    }
+
+    /** Writes a packed color to the given LED writer. */
+    public static void write(LEDWriter writer, int index, int rgb)
+    {
+        writer.setRGB(index, red(rgb), green(rgb), blue(rgb));
+    }
+
+    /** Identical to lerp(Color, Color, double, double), but works on packed colors and allocates nothing. */
+    public static int lerp(int a, int b, double t, double gamma)
+    {
+        return GammaTable.of(gamma).lerp(a, b, t);
     }
+    // #endregion
 }
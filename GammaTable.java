@@ -0,0 +1,118 @@
+package betterlights;
+
+import java.util.HashMap;
+
+/**
+ * Lookup tables for interpolating 8-bit colors with a given gamma. Colors are moved into a
+ * fixed-point linear domain, interpolated there, and mapped straight back to 8 bits, which
+ * avoids calling Math.pow() for every pixel. Tables are built once per gamma value and shared.
+ */
+public final class GammaTable
+{
+    // The linear domain is fixed-point, where 1 << kLinearBits represents full brightness.
+    // It needs a lot of bits, since high gamma values push dark colors very close to zero.
+    private static final int kLinearBits = 62;
+    // The inverse table is indexed by the top kInverseBits bits of a linear value.
+    private static final int kInverseBits = 12;
+    private static final int kInverseShift = kLinearBits - kInverseBits;
+
+    private static final HashMap<Double, GammaTable> kTables = new HashMap<>();
+    private static GammaTable lastUsed;
+
+    /** Returns the shared table for the given gamma, building it the first time it is asked for. */
+    public static GammaTable of(double gamma)
+    {
+        GammaTable table = lastUsed;
+        if (table != null && table.gamma == gamma) return table;
+
+        synchronized (kTables)
+        {
+            table = kTables.get(gamma);
+            if (table == null)
+            {
+                table = new GammaTable(gamma);
+                kTables.put(gamma, table);
+            }
+        }
+        lastUsed = table;
+        return table;
+    }
+
+    /** The gamma value this table was built for. */
+    public final double gamma;
+
+    // The linear value of each 8-bit channel.
+    private final long[] toLinear;
+    // The smallest linear value that maps back to each 8-bit channel (exclusive).
+    private final long[] thresholds;
+    // A coarse inverse. Gives the output for the lowest linear value in each bucket.
+    private final byte[] fromLinear;
+
+    private GammaTable(double gamma)
+    {
+        this.gamma = gamma;
+        final double scale = 1L << kLinearBits;
+
+        toLinear = new long[256];
+        for (int i = 0; i < 256; i++) toLinear[i] = Math.round(Math.pow(ColorHelper.toUnit(i), gamma) * scale);
+
+        // A linear value maps back to the highest channel whose threshold it passes. The thresholds
+        // follow the same rounding that ColorHelper.toByte() does, so results match pow() closely.
+        thresholds = new long[256];
+        thresholds[0] = Long.MIN_VALUE;
+        for (int v = 1; v < 256; v++)
+        {
+            int steps = (int)Math.ceil(v * 4096 / 255.0);
+            while (steps / 4096.0 * 255 < v) steps++;
+            while (steps > 1 && (steps - 1) / 4096.0 * 255 >= v) steps--;
+            thresholds[v] = (long)Math.floor(Math.pow((steps - 1) / 4096.0, gamma) * scale);
+        }
+
+        fromLinear = new byte[(1 << kInverseBits) + 2];
+        int v = 0;
+        for (int i = 0; i < fromLinear.length; i++)
+        {
+            long linear = (long)i << kInverseShift;
+            while (v < 255 && thresholds[v + 1] < linear) v++;
+            fromLinear[i] = (byte)v;
+        }
+    }
+
+    /** Interpolates between two packed colors. */
+    public int lerp(int a, int b, double t)
+    {
+        if (t <= 0) return a;
+        else if (t >= 1) return b;
+
+        return ColorHelper.pack(
+            lerpLinear(ColorHelper.red(a), ColorHelper.red(b), t),
+            lerpLinear(ColorHelper.green(a), ColorHelper.green(b), t),
+            lerpLinear(ColorHelper.blue(a), ColorHelper.blue(b), t)
+        );
+    }
+    /** Interpolates between two 8-bit channels. */
+    public int lerpChannel(int a, int b, double t)
+    {
+        if (t <= 0) return a;
+        else if (t >= 1) return b;
+        else return lerpLinear(a, b, t);
+    }
+
+    private int lerpLinear(int a, int b, double t)
+    {
+        long linA = toLinear[a], linB = toLinear[b];
+        long linear = linA + (long)(t * (linB - linA));
+
+        // The coarse table bounds the answer between the outputs of this bucket and the next.
+        // That's almost always a single value, but near black a bucket can span several.
+        int bucket = (int)(linear >> kInverseShift);
+        int low = fromLinear[bucket] & 0xFF, high = fromLinear[bucket + 1] & 0xFF;
+        while (low < high)
+        {
+            int mid = (low + high + 1) >> 1;
+            if (thresholds[mid] < linear) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+}
@@ -8,11 +8,28 @@ import java.util.Iterator;
 
 import edu.wpi.first.wpilibj.util.Color;
 
-/** Represents a change of color over a position from 0 to 1. */
+/**
+ * Represents a change of color over a position from 0 to 1. Colors are looked up from a table
+ * that is compiled the first time it's needed, and again after the gradient changes.
+ */
 public class Gradient
 {
+    /** The default number of samples in a smooth gradient's lookup table. */
+    public static final int kDefaultResolution = 1024;
+    // Gaps between samples that change too quickly are sampled this many times more finely.
+    private static final int kFineSteps = 16;
+    // Set on a sample when a gap next to it is sampled more finely. Packed colors don't use this bit.
+    private static final int kLookCloser = 1 << 24;
+
     private List<Entry> entries;
     private boolean sharp;
+    private int resolution = kDefaultResolution;
+    private int revision;
+
+    // One table per gamma, since the same gradient can be shared by patterns with different gammas.
+    // Replaced as a whole rather than modified, so it can be read from another thread.
+    private static final int kMaxCompiled = 4;
+    private Compiled[] compiled = new Compiled[0];
 
     public static Gradient rainbow()
     {
@@ -58,6 +75,7 @@ public class Gradient
     public Gradient(Gradient copy)
     {
         this.sharp = copy.sharp;
+        this.resolution = copy.resolution;
         entries = new ArrayList<Entry>(copy.entries.size());
         for (int i = 0; i < copy.entries.size(); i++)
         {
@@ -77,41 +95,199 @@ public class Gradient
     public Gradient withColorEntry(double position, Color color)
     {
         insertEntry(new Entry(position, color));
+        revision++;
         return this;
     }
 
     /** Do not ease between colors in the gradient. */
-    public Gradient sharp() { sharp = true; return this; }
+    public Gradient sharp() { sharp = true; revision++; return this; }
     /** Interpolate between colors in the gradient. The default behavior. */
-    public Gradient smooth() { sharp = false; return this; }
+    public Gradient smooth() { sharp = false; revision++; return this; }
+
+    /**
+     * Sets the number of colors sampled for the lookup table of a smooth gradient. Higher values
+     * are more accurate but take more memory. Sharp gradients don't sample, so this doesn't matter there.
+     */
+    public Gradient withResolution(int resolution)
+    {
+        this.resolution = Math.max(resolution, 2);
+        revision++;
+        return this;
+    }
+
+    /** Returns a number that changes whenever this gradient is modified. */
+    public int getRevision() { return revision; }
 
     /** Returns the color at the given position between 0 and 1. Will most likely be interpolated. */
     public Color getColor(double position, double gamma)
     {
-        // We first need to find the two colors to lerp between.
-        Entry left = null, right = null;
-        for (Entry e : entries)
+        return ColorHelper.unpack(getPacked(position, gamma));
+    }
+    /**
+     * Returns the packed color at the given position between 0 and 1 (see ColorHelper.pack()).
+     * Smooth gradients return the nearest sample from the lookup table, which is always within a
+     * step of the exact color. Where the colors change quickly (such as near black with a high
+     * gamma, or around entries that are very close together), the table samples more finely, and
+     * the few places where even that isn't enough are worked out exactly.
+     */
+    public int getPacked(double position, double gamma)
+    {
+        Compiled table = getCompiled(gamma);
+
+        int[] samples = table.samples;
+        if (samples != null)
+        {
+            double scaled = position * (samples.length - 1);
+            if (!(scaled > 0)) return samples[0] & ~kLookCloser; // Also catches NaN.
+            else if (scaled >= samples.length - 1) return samples[samples.length - 1] & ~kLookCloser;
+
+            int nearest = samples[(int)(scaled + 0.5)];
+            if ((nearest & kLookCloser) == 0) return nearest;
+
+            int index = (int)scaled;
+            int block = table.fineBlocks[index];
+            if (block < 0) return nearest & ~kLookCloser;
+
+            // This gap changes too quickly for the nearest sample, so look closer.
+            double fine = (scaled - index) * kFineSteps;
+            int step = (int)fine;
+            if (table.exactBetween[block * kFineSteps + step]) return sample(table.positions, table.colors, table.gammaTable, position);
+            else return table.fineSamples[block * (kFineSteps + 1) + (int)(fine + 0.5)];
+        }
+
+        // Sharp gradients take the last entry at or before the position, so there's nothing to sample.
+        double[] positions = table.positions;
+        if (positions.length == 0) return 0; // Empty gradient!
+        if (!(position > positions[0])) return table.colors[0];
+        return table.colors[lastAtOrBefore(positions, position)];
+    }
+
+    /** Returns the table for the given gamma, compiling it if needed. */
+    private Compiled getCompiled(double gamma)
+    {
+        Compiled[] tables = compiled;
+        for (int i = 0; i < tables.length; i++)
+        {
+            if (tables[i].gamma == gamma && tables[i].revision == revision) return tables[i];
+        }
+
+        // Keep the tables that are still current, dropping the oldest if there are too many.
+        Compiled table = compile(gamma);
+        ArrayList<Compiled> kept = new ArrayList<>();
+        kept.add(table);
+        for (int i = 0; i < tables.length && kept.size() < kMaxCompiled; i++)
+        {
+            if (tables[i].revision == revision) kept.add(tables[i]);
+        }
+        compiled = kept.toArray(new Compiled[0]);
+        return table;
+    }
+    /** Returns the largest difference between any channel of two packed colors. */
+    private static int channelDistance(int a, int b)
+    {
+        int red = Math.abs(ColorHelper.red(a) - ColorHelper.red(b));
+        int green = Math.abs(ColorHelper.green(a) - ColorHelper.green(b));
+        int blue = Math.abs(ColorHelper.blue(a) - ColorHelper.blue(b));
+        return Math.max(red, Math.max(green, blue));
+    }
+    /** Returns the index of the last position at or before the given one. The first position must be before it. */
+    private static int lastAtOrBefore(double[] positions, double position)
+    {
+        int low = 0, high = positions.length - 1;
+        while (low < high)
+        {
+            int mid = (low + high + 1) >> 1;
+            if (positions[mid] <= position) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    private Compiled compile(double gamma)
+    {
+        int count = entries.size();
+        double[] positions = new double[count];
+        int[] colors = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            Entry entry = entries.get(i);
+            positions[i] = entry.position;
+            colors[i] = ColorHelper.pack(entry.color);
+        }
+
+        GammaTable gammaTable = GammaTable.of(gamma);
+        if (sharp) return new Compiled(gamma, revision, positions, colors, gammaTable, null, null, null, null);
+
+        double last = resolution - 1;
+        int[] samples = new int[resolution];
+        for (int i = 0; i < resolution; i++) samples[i] = sample(positions, colors, gammaTable, i / last);
+
+        // Sample the gaps that need it more finely.
+        int[] fineBlocks = new int[resolution - 1];
+        ArrayList<int[]> blocks = new ArrayList<>();
+        for (int i = 0; i < resolution - 1; i++)
+        {
+            fineBlocks[i] = -1;
+            if (!needsCloserLook(samples[i], samples[i + 1], positions, i / last, (i + 1) / last)) continue;
+
+            int[] block = new int[kFineSteps + 1];
+            for (int k = 0; k <= kFineSteps; k++) block[k] = sample(positions, colors, gammaTable, (i + k / (double)kFineSteps) / last);
+            fineBlocks[i] = blocks.size();
+            blocks.add(block);
+        }
+        for (int i = 0; i < resolution - 1; i++)
+        {
+            if (fineBlocks[i] < 0) continue;
+            samples[i] |= kLookCloser;
+            samples[i + 1] |= kLookCloser;
+        }
+
+        // Anything still too coarse is worked out exactly.
+        int[] fineSamples = new int[blocks.size() * (kFineSteps + 1)];
+        boolean[] exactBetween = new boolean[blocks.size() * kFineSteps];
+        for (int i = 0; i < resolution - 1; i++)
         {
-            if (e.position < position) left = e;
-            else if (e.position > position)
+            int b = fineBlocks[i];
+            if (b < 0) continue;
+
+            int[] block = blocks.get(b);
+            System.arraycopy(block, 0, fineSamples, b * (kFineSteps + 1), kFineSteps + 1);
+            for (int k = 0; k < kFineSteps; k++)
             {
-                right = e;
-                break;
+                double from = (i + k / (double)kFineSteps) / last, to = (i + (k + 1) / (double)kFineSteps) / last;
+                exactBetween[b * kFineSteps + k] = needsCloserLook(block[k], block[k + 1], positions, from, to);
             }
-            else return e.color;
         }
-
-        // Now see if we're at one of the edges.
-        if (left == null && right == null) return Color.kBlack; // Empty gradient!
-        else if (left == null) return right.color;
-        else if (right == null) return left.color;
-        else if (sharp) return left.color; // Don't interpolate if sharp is true.
-        else
+        return new Compiled(gamma, revision, positions, colors, gammaTable, samples, fineBlocks, fineSamples, exactBetween);
+    }
+    /**
+     * Returns true if the nearest of two neighbouring samples might be more than a step off
+     * somewhere between them. Between two entries every channel moves one way, so that's only when
+     * they're more than two steps apart, or when there's an entry in between.
+     */
+    private static boolean needsCloserLook(int a, int b, double[] positions, double from, double to)
+    {
+        if (channelDistance(a, b) > 2) return true;
+        for (int i = 0; i < positions.length; i++)
         {
-            // Find the "t" value between left and right. Then lerp it.
-            double t = (position - left.position) / (right.position - left.position);
-            return ColorHelper.lerp(left.color, right.color, t, gamma);
+            if (positions[i] > from && positions[i] < to) return true;
         }
+        return false;
+    }
+    /** Works out the exact color at the given position. */
+    private static int sample(double[] positions, int[] colors, GammaTable gammaTable, double position)
+    {
+        // We first need to find the two colors to lerp between.
+        if (positions.length == 0) return 0; // Empty gradient!
+        if (!(position > positions[0])) return colors[0];
+        int left = lastAtOrBefore(positions, position);
+
+        // Now see if we're at one of the edges, or right on an entry.
+        if (left == positions.length - 1 || positions[left] == position) return colors[left];
+
+        // Find the "t" value between left and right. Then lerp it.
+        double t = (position - positions[left]) / (positions[left + 1] - positions[left]);
+        return gammaTable.lerp(colors[left], colors[left + 1], t);
     }
 
     private void insertEntry(Entry entry)
@@ -134,6 +310,36 @@ public class Gradient
         // Put the entry in.
         entries.add(index, entry);
     }
+    private static class Compiled
+    {
+        public final double gamma;
+        public final int revision;
+        public final double[] positions;
+        public final int[] colors;
+        public final GammaTable gammaTable;
+
+        // The rest is only for smooth gradients. Samples next to a finely sampled gap have kLookCloser set.
+        public final int[] samples;
+        // For each gap between samples, which block of finer samples covers it, or -1 if it doesn't need one.
+        public final int[] fineBlocks;
+        public final int[] fineSamples;
+        // For each gap between fine samples, whether even those aren't close enough.
+        public final boolean[] exactBetween;
+
+        public Compiled(double gamma, int revision, double[] positions, int[] colors, GammaTable gammaTable,
+                        int[] samples, int[] fineBlocks, int[] fineSamples, boolean[] exactBetween)
+        {
+            this.gamma = gamma;
+            this.revision = revision;
+            this.positions = positions;
+            this.colors = colors;
+            this.gammaTable = gammaTable;
+            this.samples = samples;
+            this.fineBlocks = fineBlocks;
+            this.fineSamples = fineSamples;
+            this.exactBetween = exactBetween;
+        }
+    }
     private static class Entry
     {
         public final double position;
@@ -0,0 +1,97 @@
+package betterlights;
+
+import java.util.Arrays;
+
+import edu.wpi.first.wpilibj.LEDReader;
+import edu.wpi.first.wpilibj.LEDWriter;
+
+/**
+ * A reusable buffer of packed colors (see ColorHelper.pack()). Patterns can be applied to it
+ * like any other LED buffer. It only reallocates when it has to grow past the largest length
+ * it has held before, so keeping one around avoids allocating a new buffer every tick.
+ */
+public class LightBuffer implements LEDReader, LEDWriter
+{
+    private int[] data;
+    private int length;
+
+    /** Creates an empty buffer. Call resize() before using it. */
+    public LightBuffer()
+    {
+        data = new int[0];
+        length = 0;
+    }
+    /** Creates a buffer with the given length. */
+    public LightBuffer(int length)
+    {
+        data = new int[length];
+        this.length = length;
+    }
+
+    /** Changes the length of the buffer. Only reallocates if the buffer must grow. Returns this buffer. */
+    public LightBuffer resize(int length)
+    {
+        if (length > data.length) data = new int[length];
+        this.length = length;
+        return this;
+    }
+
+    @Override public int getLength() { return length; }
+    @Override public int getRed(int index) { return ColorHelper.red(data[index]); }
+    @Override public int getGreen(int index) { return ColorHelper.green(data[index]); }
+    @Override public int getBlue(int index) { return ColorHelper.blue(data[index]); }
+    @Override public void setRGB(int index, int r, int g, int b) { data[index] = ColorHelper.pack(r, g, b); }
+
+    /** Returns the packed color at the given index. */
+    public int get(int index) { return data[index]; }
+    /** Sets the packed color at the given index. */
+    public void set(int index, int rgb) { data[index] = rgb; }
+
+    /** Resizes this buffer to match another and copies its colors. */
+    public void copyFrom(LightBuffer other)
+    {
+        resize(other.length);
+        System.arraycopy(other.data, 0, data, 0, length);
+    }
+    /** Resizes this buffer to match a reader and copies its colors. */
+    public void readFrom(LEDReader reader)
+    {
+        if (reader instanceof LightBuffer other)
+        {
+            copyFrom(other);
+            return;
+        }
+        resize(reader.getLength());
+        for (int i = 0; i < length; i++) data[i] = ColorHelper.pack(reader.getRed(i), reader.getGreen(i), reader.getBlue(i));
+    }
+    /** Returns true if this buffer has the same length and colors as another. */
+    public boolean contentEquals(LightBuffer other)
+    {
+        return length == other.length && Arrays.equals(data, 0, length, other.data, 0, length);
+    }
+
+    /** Writes every color in this buffer to the given writer. */
+    public void writeTo(LEDWriter writer)
+    {
+        for (int i = 0; i < length; i++) ColorHelper.write(writer, i, data[i]);
+    }
+    /** Copies every color in this buffer into another buffer, starting at the given index. */
+    public void copyTo(LightBuffer target, int offset)
+    {
+        System.arraycopy(data, 0, target.data, offset, length);
+    }
+    /**
+     * Copies colors from this buffer into a run of the given length in another buffer, starting at
+     * the given index. Each color comes from the matching entry of indices, or from the same index
+     * if indices is null.
+     */
+    public void copyTo(LightBuffer target, int offset, int count, int[] indices)
+    {
+        if (indices == null)
+        {
+            System.arraycopy(data, 0, target.data, offset, count);
+            return;
+        }
+        for (int i = 0; i < count; i++) target.data[offset + i] = data[indices[i]];
+    }
+}
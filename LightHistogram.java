@@ -0,0 +1,88 @@
+package betterlights;
+
+import java.util.Arrays;
+
+/**
+ * Counts how often values land in a fixed set of buckets, so percentiles can be read back later
+ * without keeping every sample. Buckets double in size every eight buckets, which keeps every
+ * percentile within about 12% of the real value from zero all the way up to Long.MAX_VALUE.
+ *
+ * Recording never allocates. A histogram should only be recorded to from one thread at a time.
+ */
+public final class LightHistogram
+{
+    // Every power of two is split into this many buckets. Values below this are counted exactly.
+    private static final int kSubBits = 3;
+    private static final int kSubBuckets = 1 << kSubBits;
+    private static final int kBucketCount = (64 - kSubBits) * kSubBuckets;
+
+    private final long[] counts = new long[kBucketCount];
+    private long count, sum, max;
+
+    /** Counts a single value. Negative values count as zero. */
+    public void record(long value)
+    {
+        if (value < 0) value = 0;
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        if (value > max) max = value;
+    }
+
+    /** Forgets every value recorded so far. */
+    public void reset()
+    {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /** Returns how many values have been recorded. */
+    public long getCount() { return count; }
+    /** Returns the largest value recorded, or 0 if there aren't any. */
+    public long getMax() { return max; }
+    /** Returns the average of every value recorded, or 0 if there aren't any. */
+    public double getMean() { return count == 0 ? 0 : (double)sum / count; }
+
+    /**
+     * Returns a value that the given percentage of recorded values are at or below, such as 50
+     * for the median or 99 for the slowest 1%. Rounds up to the top of the bucket, but never past
+     * the largest value recorded. Returns 0 if nothing has been recorded.
+     */
+    public long getPercentile(double percent)
+    {
+        if (count == 0) return 0;
+        long rank = (long)Math.ceil(Math.max(0, Math.min(100, percent)) / 100 * count);
+        if (rank < 1) rank = 1;
+
+        long seen = 0;
+        for (int i = 0; i < kBucketCount; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperBoundOf(i), max);
+        }
+        return max;
+    }
+
+    private static int bucketOf(long value)
+    {
+        if (value < kSubBuckets) return (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exponent - kSubBits)) & (kSubBuckets - 1);
+        return (exponent - kSubBits + 1) * kSubBuckets + sub;
+    }
+    private static long upperBoundOf(int bucket)
+    {
+        if (bucket < kSubBuckets) return bucket;
+        int exponent = bucket / kSubBuckets + kSubBits - 1;
+        long lower = (long)(kSubBuckets + bucket % kSubBuckets) << (exponent - kSubBits);
+        return lower + (1L << (exponent - kSubBits)) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("p50 %d, p99 %d, max %d (%d values)", getPercentile(50), getPercentile(99), max, count);
+    }
+}
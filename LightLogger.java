@@ -0,0 +1,209 @@
+package betterlights;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntSupplier;
+
+/**
+ * Prints the scheduler's log messages on a thread of its own, so console output never holds up
+ * the robot loop. Logging only fills in a preallocated entry in a ring, and the log thread does
+ * all the formatting and printing later. Messages are printed in the order they were logged.
+ *
+ * Any thread can log without taking a lock. Each entry has a sequence number that says whether
+ * it's free, being written, or ready to print, so writers only race to claim a slot. If the ring
+ * is full, the message is dropped and counted instead of waiting, and the log thread reports how
+ * many were dropped.
+ *
+ * Arguments are formatted on the log thread, so they shouldn't change after they're logged.
+ */
+class LightLogger
+{
+    private static final String kStateChange = "Light segment \"%s\" has changed state: %s -> %s";
+    // How long the log thread sleeps when there's nothing to print.
+    private static final long kIdleNanos = 20_000_000;
+
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    // Only touched while draining.
+    private long head, reportedDrops;
+    private final AtomicLong dropped = new AtomicLong();
+    // The lowest level the logger's own warnings are printed at.
+    private final IntSupplier logLevel;
+
+    /**
+     * Creates a logger with room for at least the given number of messages, and starts its thread.
+     * The logger's own warnings are only printed if the log level allows them.
+     */
+    LightLogger(int capacity, IntSupplier logLevel)
+    {
+        this.logLevel = logLevel;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        entries = new Entry[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+
+        Thread thread = new Thread(this::run, "LightScheduler Log");
+        thread.setDaemon(true);
+        thread.start();
+        // The log thread is a daemon, so print whatever is left when the program exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "LightScheduler Log Flush"));
+    }
+
+    /** Logs a message, formatted with String.format() later. */
+    void log(int level, String message, Object[] args)
+    {
+        Entry entry = claim();
+        if (entry == null) return;
+        entry.level = level;
+        entry.message = message;
+        entry.args = args;
+        publish(entry);
+    }
+    /** Logs that a segment changed state. Doesn't allocate. */
+    void logStateChange(int level, String segment, Object from, Object to)
+    {
+        Entry entry = claim();
+        if (entry == null) return;
+        entry.level = level;
+        entry.message = kStateChange;
+        entry.segment = segment;
+        entry.from = from;
+        entry.to = to;
+        publish(entry);
+    }
+
+    /** Returns how many messages were dropped because the ring was full. */
+    long getDroppedCount() { return dropped.get(); }
+
+    /** Prints everything logged so far on the calling thread. */
+    void flush() { drain(); }
+
+    // #region Ring.
+    /** Claims the next free entry, or returns null and counts a drop if there isn't one. */
+    private Entry claim()
+    {
+        while (true)
+        {
+            long position = tail.get();
+            Entry entry = entries[(int)position & mask];
+            long difference = sequences.get((int)position & mask) - position;
+            if (difference < 0)
+            {
+                // The log thread hasn't caught up with this slot yet.
+                dropped.incrementAndGet();
+                return null;
+            }
+            if (difference == 0 && tail.compareAndSet(position, position + 1))
+            {
+                entry.position = position;
+                return entry;
+            }
+            // Another thread claimed this slot first. Try the next one.
+        }
+    }
+    private void publish(Entry entry)
+    {
+        sequences.set((int)entry.position & mask, entry.position + 1);
+    }
+    // #endregion
+
+    private void run()
+    {
+        while (true)
+        {
+            if (!drain()) LockSupport.parkNanos(this, kIdleNanos);
+        }
+    }
+    /** Prints every entry that's ready. Returns true if there were any. */
+    private synchronized boolean drain()
+    {
+        boolean printed = false;
+        while (true)
+        {
+            int index = (int)head & mask;
+            if (sequences.get(index) != head + 1) break; // Empty, or still being written.
+
+            Entry entry = entries[index];
+            int level = entry.level;
+            String message;
+            try
+            {
+                message = entry.segment != null
+                    ? String.format(kStateChange, entry.segment, String.valueOf(entry.from), String.valueOf(entry.to))
+                    : String.format(entry.message, entry.args == null ? new Object[0] : entry.args);
+            }
+            catch (Throwable e)
+            {
+                // A state's toString() threw, or the arguments didn't fit the message. Don't let
+                // that take the log thread down with it.
+                message = String.format("Couldn't print a log message (%s): %s", entry.segment != null ? kStateChange : entry.message, e);
+            }
+            finally
+            {
+                // Always hand the slot back, or the ring fills up and nothing is ever printed again.
+                entry.clear();
+                sequences.set(index, head + mask + 1);
+                head++;
+            }
+
+            print(level, message);
+            printed = true;
+        }
+
+        long drops = dropped.get();
+        if (drops != reportedDrops)
+        {
+            if (logLevel.getAsInt() <= 2)
+            {
+                print(2, String.format("Dropped %d log messages because they were logged faster than they could be printed.", drops - reportedDrops));
+                printed = true;
+            }
+            reportedDrops = drops;
+        }
+        return printed;
+    }
+    private static void print(int level, String message)
+    {
+        String prefix;
+        switch (level)
+        {
+            case 0: prefix = "DEBUG"; break;
+            case 1: prefix = "INFO"; break;
+            case 2: prefix = "WARN"; break;
+            case 3: prefix = "ERROR"; break;
+            default: prefix = "???"; break;
+        }
+        System.out.printf("[LIGHTS] %s: %s\n", prefix, message);
+    }
+
+    /** A single message waiting to be printed. */
+    private static class Entry
+    {
+        long position;
+        int level;
+        String message;
+        Object[] args;
+        // Only set for state changes.
+        String segment;
+        Object from, to;
+
+        /** Lets go of the arguments, so they can be garbage collected. */
+        void clear()
+        {
+            message = null;
+            args = null;
+            segment = null;
+            from = null;
+            to = null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package betterlights;
+
+import java.util.Locale;
+
+/**
+ * Timings collected by the light scheduler while it runs, turned on with
+ * {@link LightSchedulerConfig#withMetrics()}. Times are in nanoseconds.
+ *
+ * Each tick records how long the whole tick took and how many requests every segment has. Each
+ * segment that's drawn records how long it took to work out its state and pattern, and how long
+ * the pattern took to draw. Every strip that's sent records how long it took to put together
+ * and hand to its output.
+ *
+ * With a render thread, the tick time doesn't include drawing, and draw times are picked up
+ * whenever the main loop takes a set of finished frames. Read these from the robot thread.
+ */
+public final class LightMetrics
+{
+    private final String[] segmentNames;
+    private final LightHistogram tickTime = new LightHistogram(), outputTime = new LightHistogram();
+    private final LightHistogram[] resolveTimes, renderTimes, requestCounts;
+
+    LightMetrics(String[] segmentNames)
+    {
+        this.segmentNames = segmentNames;
+        resolveTimes = create(segmentNames.length);
+        renderTimes = create(segmentNames.length);
+        requestCounts = create(segmentNames.length);
+    }
+    private static LightHistogram[] create(int count)
+    {
+        LightHistogram[] histograms = new LightHistogram[count];
+        for (int i = 0; i < count; i++) histograms[i] = new LightHistogram();
+        return histograms;
+    }
+
+    // #region Recording.
+    void recordTick(long nanos) { tickTime.record(nanos); }
+    void recordOutput(long nanos) { outputTime.record(nanos); }
+    void recordResolve(int id, long nanos) { resolveTimes[id].record(nanos); }
+    void recordRender(int id, long nanos) { renderTimes[id].record(nanos); }
+    void recordRequests(int id, int count) { requestCounts[id].record(count); }
+    // #endregion
+
+    /** Returns how long each tick of the scheduler took. */
+    public LightHistogram getTickTime() { return tickTime; }
+    /** Returns how long it took to put each strip's frame together and send it. */
+    public LightHistogram getOutputTime() { return outputTime; }
+
+    /** Returns how long the named segment took to work out its state each tick, or null if there's no such segment. */
+    public LightHistogram getResolveTime(String name) { return find(resolveTimes, name); }
+    /** Returns how long the given segment took to work out its state each tick, or null if the handle is out of date. */
+    public LightHistogram getResolveTime(SegmentHandle segment) { return find(resolveTimes, segment); }
+
+    /** Returns how long the named segment's pattern took to draw each tick, or null if there's no such segment. */
+    public LightHistogram getRenderTime(String name) { return find(renderTimes, name); }
+    /** Returns how long the given segment's pattern took to draw each tick, or null if the handle is out of date. */
+    public LightHistogram getRenderTime(SegmentHandle segment) { return find(renderTimes, segment); }
+
+    /** Returns how many outstanding requests the named segment had each tick, or null if there's no such segment. */
+    public LightHistogram getRequestCounts(String name) { return find(requestCounts, name); }
+    /** Returns how many outstanding requests the given segment had each tick, or null if the handle is out of date. */
+    public LightHistogram getRequestCounts(SegmentHandle segment) { return find(requestCounts, segment); }
+
+    /** Forgets everything recorded so far. */
+    public void reset()
+    {
+        tickTime.reset();
+        outputTime.reset();
+        for (int i = 0; i < segmentNames.length; i++)
+        {
+            resolveTimes[i].reset();
+            renderTimes[i].reset();
+            requestCounts[i].reset();
+        }
+    }
+
+    private LightHistogram find(LightHistogram[] histograms, String name)
+    {
+        for (int i = 0; i < segmentNames.length; i++)
+        {
+            if (segmentNames[i].equals(name)) return histograms[i];
+        }
+        return null;
+    }
+    private LightHistogram find(LightHistogram[] histograms, SegmentHandle segment)
+    {
+        if (segment.id < 0 || segment.id >= histograms.length) return null;
+        else return histograms[segment.id];
+    }
+
+    /** Returns a table of every timing, in microseconds. */
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "%-32s %10s %10s %10s%n", "Light metrics (us)", "p50", "p99", "max"));
+        appendTime(builder, "tick", tickTime);
+        appendTime(builder, "output", outputTime);
+        for (int i = 0; i < segmentNames.length; i++)
+        {
+            appendTime(builder, segmentNames[i] + " resolve", resolveTimes[i]);
+            appendTime(builder, segmentNames[i] + " render", renderTimes[i]);
+            LightHistogram requests = requestCounts[i];
+            builder.append(String.format(Locale.ROOT, "%-32s %10d %10d %10d%n",
+                segmentNames[i] + " requests", requests.getPercentile(50), requests.getPercentile(99), requests.getMax()));
+        }
+        return builder.toString();
+    }
+    private static void appendTime(StringBuilder builder, String name, LightHistogram histogram)
+    {
+        builder.append(String.format(Locale.ROOT, "%-32s %10.1f %10.1f %10.1f%n",
+            name,
+            histogram.getPercentile(50) / 1e3,
+            histogram.getPercentile(99) / 1e3,
+            histogram.getMax() / 1e3));
+    }
+}
@@ -0,0 +1,28 @@
+package betterlights;
+
+/**
+ * Where the scheduler sends finished strip frames. Each physical strip (one per port) gets its
+ * own output. The default sends frames to an {@link AddressableLightOutput}, but anything that
+ * can take a frame of packed colors will do, like a {@link MemoryLightOutput} for running the
+ * scheduler without any hardware.
+ */
+public interface LightOutput extends AutoCloseable
+{
+    /**
+     * Sends a frame of packed colors (see ColorHelper.pack()) as long as the strip. The frame is
+     * reused by the scheduler, so copy anything you want to keep.
+     */
+    void send(LightBuffer frame);
+
+    /** Releases whatever the output holds on to. No frames are sent after this. */
+    @Override
+    void close();
+
+    /** Opens an output for a strip. */
+    @FunctionalInterface
+    public interface Factory
+    {
+        /** Opens the output for the strip on the given port, with the given number of LEDs. */
+        LightOutput open(int port, int length);
+    }
+}
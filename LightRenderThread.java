@@ -0,0 +1,261 @@
+package betterlights;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import betterlights.patterns.LightPattern;
+
+/**
+ * Draws segment frames on a thread of its own, so heavy patterns don't hold up the main robot
+ * loop. The main loop still works out which pattern each segment shows, then hands them over
+ * as a job. Finished frames are handed back the same way.
+ *
+ * Both handoffs are triple buffered. Each side owns one buffer, and the third sits in an atomic
+ * reference in the middle. Publishing swaps your buffer into the middle, so neither side ever
+ * waits on a lock, and the newest job or frame set always wins.
+ *
+ * A frame drawn from the states of one tick reaches the strip on the next tick at the earliest,
+ * or later if drawing it takes longer than one loop. The scheduler measures how long this takes.
+ *
+ * Patterns keep state between frames, so only this thread touches them once it's running. The
+ * main loop queues anything else it needs to do to a pattern (enabling, disabling, rewiring a
+ * transition), and those actions run here before the next job is drawn. Whether a pattern has
+ * completed is reported back with the frames.
+ */
+class LightRenderThread extends Thread
+{
+    private final SegmentFrame[] frames;
+    private final int[][] stripsShowing;
+    private final long[] stripVersions;
+    private final Consumer<Throwable> onError;
+    private final ParallelFrameDrawer parallelDrawer;
+    private final boolean[] changed;
+
+    private final AtomicReference<Job> pendingJob;
+    private Job mainJob, renderJob;
+    // Jobs are numbered so actions run before the first job published after they were queued.
+    private int nextJob;
+    private final ConcurrentLinkedQueue<Action> actions = new ConcurrentLinkedQueue<>();
+
+    // Only touched by the main thread. The pattern each segment last reported complete, and the
+    // first job that counts for each segment since its pattern last started.
+    private final LightPattern[] completedPatterns;
+    private final int[] startJobs;
+
+    private final AtomicReference<FrameSet> completedFrames;
+    private FrameSet mainFrames, renderFrames;
+
+    private volatile boolean running;
+
+    LightRenderThread(int[] segmentLengths, int[][] stripsShowing, int stripCount, ParallelFrameDrawer parallelDrawer, boolean timed, Consumer<Throwable> onError)
+    {
+        super("LightScheduler Render");
+        setDaemon(true);
+
+        int segmentCount = segmentLengths.length;
+        frames = new SegmentFrame[segmentCount];
+        for (int i = 0; i < segmentCount; i++) frames[i] = new SegmentFrame(segmentLengths[i], timed);
+        this.stripsShowing = stripsShowing;
+        stripVersions = new long[stripCount];
+        this.onError = onError;
+        this.parallelDrawer = parallelDrawer;
+        changed = new boolean[segmentCount];
+        completedPatterns = new LightPattern[segmentCount];
+        startJobs = new int[segmentCount];
+
+        mainJob = new Job(segmentCount);
+        renderJob = new Job(segmentCount);
+        pendingJob = new AtomicReference<>(new Job(segmentCount));
+
+        mainFrames = new FrameSet(segmentLengths, stripCount);
+        renderFrames = new FrameSet(segmentLengths, stripCount);
+        completedFrames = new AtomicReference<>(new FrameSet(segmentLengths, stripCount));
+
+        running = true;
+    }
+
+    // #region Called from the main thread.
+    /** Sets the pattern a segment should be drawn with in the next job. Null skips the segment. */
+    void setPattern(int id, LightPattern pattern)
+    {
+        mainJob.patterns[id] = pattern;
+    }
+    /** Runs an action on the render thread before it draws the next job that's published. */
+    void queue(Runnable action)
+    {
+        actions.add(new Action(nextJob, action));
+    }
+    /** Forgets any completion reported for a segment, since it's starting a new pattern. */
+    void restart(int id)
+    {
+        completedPatterns[id] = null;
+        startJobs[id] = nextJob;
+    }
+    /** Returns true if the given pattern was complete after the render thread last drew it for a segment. */
+    boolean isComplete(int id, LightPattern pattern)
+    {
+        return pattern != null && completedPatterns[id] == pattern;
+    }
+    /** Hands the current job over to the render thread. */
+    void publish(int tick)
+    {
+        mainJob.number = nextJob++;
+        mainJob.tick = tick;
+        mainJob.publishedNanos = System.nanoTime();
+        mainJob.fresh = true;
+        mainJob = pendingJob.getAndSet(mainJob);
+        LockSupport.unpark(this);
+    }
+    /** Returns the newest set of finished frames, or null if none have finished since the last call. */
+    FrameSet takeFrames()
+    {
+        if (!completedFrames.get().fresh) return null;
+        mainFrames.fresh = false;
+        mainFrames = completedFrames.getAndSet(mainFrames);
+
+        // Completion is only reported once it's true, so a newer set never takes it back.
+        for (int i = 0; i < completedPatterns.length; i++)
+        {
+            if (mainFrames.completed[i] != null && mainFrames.job >= startJobs[i]) completedPatterns[i] = mainFrames.completed[i];
+        }
+        return mainFrames;
+    }
+
+    /** Stops the thread and waits briefly for it to finish. */
+    void close()
+    {
+        running = false;
+        LockSupport.unpark(this);
+        try
+        {
+            join(100);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    // #endregion
+
+    @Override
+    public void run()
+    {
+        while (running)
+        {
+            if (!pendingJob.get().fresh)
+            {
+                // Nothing new to draw. Wait for the main thread to publish something.
+                LockSupport.park(this);
+                continue;
+            }
+            renderJob.fresh = false;
+            renderJob = pendingJob.getAndSet(renderJob);
+
+            try
+            {
+                draw(renderJob);
+            }
+            catch (Throwable e)
+            {
+                onError.accept(e);
+            }
+        }
+    }
+    private void draw(Job job)
+    {
+        // Catch up on everything the main thread did to patterns before this job.
+        while (true)
+        {
+            Action action = actions.peek();
+            if (action == null || action.job > job.number) break;
+            actions.poll();
+            if (parallelDrawer != null) parallelDrawer.invalidate();
+            action.run.run();
+        }
+
+        for (int i = 0; i < frames.length; i++)
+        {
+            LightPattern pattern = job.patterns[i];
+            if (pattern == null) continue;
+
+            pattern.setCurrentTick(job.tick);
+            if (parallelDrawer == null) changed[i] = frames[i].draw(pattern);
+        }
+        if (parallelDrawer != null) parallelDrawer.draw(frames, job.patterns, changed);
+        for (int i = 0; i < frames.length; i++)
+        {
+            if (job.patterns[i] == null || !changed[i]) continue;
+            for (int strip : stripsShowing[i]) stripVersions[strip]++;
+        }
+
+        // Every set holds every frame, so it doesn't matter if the main thread skips over some.
+        FrameSet set = renderFrames;
+        for (int i = 0; i < frames.length; i++)
+        {
+            set.frames[i].copyFrom(frames[i].get());
+            set.drawNanos[i] = job.patterns[i] == null ? -1 : frames[i].getDrawNanos();
+            set.completed[i] = job.patterns[i] != null && job.patterns[i].isComplete() ? job.patterns[i] : null;
+        }
+        set.job = job.number;
+        System.arraycopy(stripVersions, 0, set.stripVersions, 0, stripVersions.length);
+        set.publishedNanos = job.publishedNanos;
+        set.fresh = true;
+        renderFrames = completedFrames.getAndSet(set);
+    }
+
+    /** The patterns to draw for a single tick. */
+    private static class Job
+    {
+        final LightPattern[] patterns;
+        int number;
+        int tick;
+        long publishedNanos;
+        boolean fresh;
+
+        Job(int segmentCount)
+        {
+            patterns = new LightPattern[segmentCount];
+        }
+    }
+
+    /** A finished frame for every segment. */
+    static class FrameSet
+    {
+        final LightBuffer[] frames;
+        // Changes whenever a strip's frames change, so the main thread knows which ones to send.
+        final long[] stripVersions;
+        // How long each segment took to draw, if timed. Negative for segments that weren't drawn.
+        final long[] drawNanos;
+        // Each segment's pattern if it was complete after drawing, or null.
+        final LightPattern[] completed;
+        // The number of the job these frames were drawn from.
+        int job;
+        // When the job these frames were drawn from was published.
+        long publishedNanos;
+        boolean fresh;
+
+        FrameSet(int[] segmentLengths, int stripCount)
+        {
+            frames = new LightBuffer[segmentLengths.length];
+            for (int i = 0; i < frames.length; i++) frames[i] = new LightBuffer(segmentLengths[i]);
+            stripVersions = new long[stripCount];
+            drawNanos = new long[segmentLengths.length];
+            completed = new LightPattern[segmentLengths.length];
+        }
+    }
+
+    /** Something the main thread did to a pattern, waiting to run on the render thread. */
+    private static class Action
+    {
+        final int job;
+        final Runnable run;
+
+        Action(int job, Runnable run)
+        {
+            this.job = job;
+            this.run = run;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package betterlights;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The outstanding state requests for a single named segment, kept in a heap ordered by the
+ * priority of their states. Requests that are equally important are ordered by when they
+ * were made, so the oldest one wins.
+ *
+ * Disposed and disabled requests are dropped lazily, once they reach the top of the heap.
+ * Re-enabling a request puts it back.
+ *
+ * Requests made on behalf of an owner are also kept in a slot for that owner, so repeated
+ * requests from the same owner reuse a single request.
+ *
+ * The queue is marked dirty whenever one of its requests changes, so the scheduler only has
+ * to work out the winning state again when something could have changed it. Changes have to come
+ * through LightStatusRequest, or onPriorityChanged() for priorities, to be noticed.
+ */
+class LightRequestQueue
+{
+    private final LightStateIndex states;
+
+    private Entry[] heap;
+    private int size;
+    private int disposedInHeap;
+    private int parked;
+    private long nextSequence;
+    private boolean dirty;
+
+    private final HashMap<Object, LightStatusRequest> keyed;
+
+    /** Temporary requests made by the scheduler itself (for transitions), in the order they were made. */
+    final ArrayList<LightStatusRequest> temporaries;
+
+    LightRequestQueue(LightStateIndex states)
+    {
+        this.states = states;
+        heap = new Entry[8];
+        size = 0;
+        temporaries = new ArrayList<>();
+        keyed = new HashMap<>();
+        dirty = true;
+    }
+
+    /** Adds a request to the queue. */
+    void add(LightStatusRequest request)
+    {
+        Entry entry = new Entry(this, request, nextSequence++);
+        request.addEntry(entry);
+        if (request.temporary) temporaries.add(request);
+        dirty = true;
+
+        if (request.isDisposed()) return;
+        else if (request.isEnabled()) push(entry);
+        else parked++;
+    }
+
+    /**
+     * Requests a state on behalf of an owner. If the owner already has a live request in this
+     * queue, it is updated and re-enabled instead of adding a new one.
+     */
+    LightStatusRequest addKeyed(Object owner, Object state)
+    {
+        LightStatusRequest request = keyed.get(owner);
+        if (request == null || request.isDisposed())
+        {
+            request = new LightStatusRequest(state);
+            keyed.put(owner, request);
+            add(request);
+        }
+        else
+        {
+            if (request.state != state && (request.state == null || !request.state.equals(state))) request.setState(state);
+            request.enable();
+        }
+        return request;
+    }
+    /** Disposes of the request made on behalf of an owner, if there is one. */
+    void removeKeyed(Object owner)
+    {
+        LightStatusRequest request = keyed.remove(owner);
+        if (request != null) request.dispose();
+    }
+
+    /**
+     * Returns whether the winning state may have changed since the last call to markResolved().
+     * Queues with temporary requests always need resolving, since transitions end on their own.
+     */
+    boolean needsResolve()
+    {
+        return dirty || !temporaries.isEmpty();
+    }
+    /** Marks the winning state as up to date. */
+    void markResolved() { dirty = false; }
+
+    /** Returns the number of requests in the queue that have not been dropped yet. */
+    int size() { return size + parked; }
+    /** Returns the number of owners with a slot in the queue. */
+    int keyedSize() { return keyed.size(); }
+
+    /**
+     * Returns the entry of the enabled request with the highest priority, or null if there isn't
+     * one with a known state. O(1) unless something has changed since the last call.
+     */
+    Entry peek()
+    {
+        while (size > 0)
+        {
+            Entry top = heap[0];
+            LightStatusRequest request = top.request;
+            if (request.isDisposed() || !request.isEnabled())
+            {
+                // Drop it. If it's disabled, enabling it again will put it back.
+                if (request.isDisposed()) disposedInHeap--;
+                else parked++;
+                removeAt(0);
+            }
+            else if (!top.known) return null; // Nothing below this has a known state either.
+            else return top;
+        }
+        return null;
+    }
+
+    // #region Notifications from LightStatusRequest.
+    void onEnabled(Entry entry)
+    {
+        dirty = true;
+        if (entry.heapIndex >= 0 || entry.request.isDisposed()) return;
+        parked--;
+        push(entry);
+    }
+    void onDisabled(Entry entry)
+    {
+        // Disabled requests are dropped once they reach the top, but the winner may have changed.
+        dirty = true;
+    }
+    void onDisposed(Entry entry)
+    {
+        dirty = true;
+        if (entry.heapIndex < 0)
+        {
+            parked--;
+            return;
+        }
+        disposedInHeap++;
+
+        // Disposed requests are normally removed once they reach the top. If they pile up
+        // underneath a long-lived request instead, sweep them all out at once.
+        if (disposedInHeap > 8 && disposedInHeap * 2 > size) compact();
+    }
+    /** Re-sorts the requests for a state whose priority was changed. */
+    void onPriorityChanged(Object state)
+    {
+        boolean changed = false;
+        for (int i = 0; i < size; i++)
+        {
+            Entry entry = heap[i];
+            if (entry.state != state && (entry.state == null || !entry.state.equals(state))) continue;
+            resolve(entry);
+            changed = true;
+        }
+        if (!changed) return;
+
+        // Rebuild the heap, since any number of entries may have moved.
+        dirty = true;
+        for (int i = size / 2 - 1; i >= 0; i--) siftDown(i);
+    }
+    void onStateChanged(Entry entry)
+    {
+        dirty = true;
+        if (entry.heapIndex < 0) return;
+        resolve(entry);
+        siftUp(entry.heapIndex);
+        siftDown(entry.heapIndex);
+    }
+    // #endregion
+
+    // #region Heap operations.
+    private void push(Entry entry)
+    {
+        resolve(entry);
+        if (size == heap.length)
+        {
+            Entry[] grown = new Entry[heap.length * 2];
+            System.arraycopy(heap, 0, grown, 0, size);
+            heap = grown;
+        }
+        heap[size] = entry;
+        entry.heapIndex = size;
+        size++;
+        siftUp(size - 1);
+    }
+    private void removeAt(int index)
+    {
+        Entry removed = heap[index];
+        removed.heapIndex = -1;
+        size--;
+        if (index != size)
+        {
+            Entry last = heap[size];
+            heap[index] = last;
+            last.heapIndex = index;
+            siftUp(index);
+            siftDown(last.heapIndex);
+        }
+        heap[size] = null;
+    }
+    private void compact()
+    {
+        int kept = 0;
+        for (int i = 0; i < size; i++)
+        {
+            Entry entry = heap[i];
+            if (entry.request.isDisposed()) entry.heapIndex = -1;
+            else heap[kept++] = entry;
+        }
+        for (int i = kept; i < size; i++) heap[i] = null;
+        size = kept;
+        disposedInHeap = 0;
+
+        // Rebuild the heap from the bottom up.
+        for (int i = 0; i < size; i++) heap[i].heapIndex = i;
+        for (int i = size / 2 - 1; i >= 0; i--) siftDown(i);
+    }
+    private void siftUp(int index)
+    {
+        Entry entry = heap[index];
+        while (index > 0)
+        {
+            int parent = (index - 1) >> 1;
+            if (!entry.isBefore(heap[parent])) break;
+            heap[index] = heap[parent];
+            heap[index].heapIndex = index;
+            index = parent;
+        }
+        heap[index] = entry;
+        entry.heapIndex = index;
+    }
+    private void siftDown(int index)
+    {
+        Entry entry = heap[index];
+        while (true)
+        {
+            int child = 2 * index + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1].isBefore(heap[child])) child++;
+            if (!heap[child].isBefore(entry)) break;
+            heap[index] = heap[child];
+            heap[index].heapIndex = index;
+            index = child;
+        }
+        heap[index] = entry;
+        entry.heapIndex = index;
+    }
+    private void resolve(Entry entry)
+    {
+        entry.state = entry.request.state;
+        LightStatusConfig config = states.get(entry.state);
+        entry.known = config != null;
+        entry.priority = entry.known ? config.priority : Integer.MIN_VALUE;
+    }
+    // #endregion
+
+    /** A request's place in a single queue. A request that applies to several segments has one per segment. */
+    static class Entry
+    {
+        final LightRequestQueue queue;
+        final LightStatusRequest request;
+        final long sequence;
+
+        int heapIndex;
+        Object state;
+        boolean known;
+        int priority;
+
+        Entry(LightRequestQueue queue, LightStatusRequest request, long sequence)
+        {
+            this.queue = queue;
+            this.request = request;
+            this.sequence = sequence;
+            heapIndex = -1;
+        }
+
+        boolean isBefore(Entry other)
+        {
+            if (known != other.known) return known;
+            else if (priority != other.priority) return priority > other.priority;
+            else return sequence < other.sequence;
+        }
+    }
+}
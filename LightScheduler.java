@@ -3,15 +3,13 @@ package betterlights;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import edu.wpi.first.math.Pair;
-import edu.wpi.first.wpilibj.AddressableLED;
-import edu.wpi.first.wpilibj.AddressableLEDBuffer;
-import edu.wpi.first.wpilibj.AddressableLEDBufferView;
-import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj2.command.Command;
 import edu.wpi.first.wpilibj2.command.CommandScheduler;
 import betterlights.patterns.LightPattern;
+import betterlights.patterns.SnapshotLightPattern;
 import betterlights.transitions.LightTransition;
 import betterlights.transitions.TransitionPair;
 
@@ -35,7 +33,36 @@ public class LightScheduler extends Command
     /** Stops the light scheduler. */
     public static void stop()
     {
-        CommandScheduler.getInstance().cancel(kInstance);
+        if (kInstance.manual)
+        {
+            kInstance.manual = false;
+            kInstance.end(false);
+        }
+        else CommandScheduler.getInstance().cancel(kInstance);
+    }
+
+    /**
+     * Runs a single tick of the scheduler by hand, instead of leaving it to the CommandScheduler.
+     * The first call sets the scheduler up, and stop() tears it down again. Together with a
+     * MemoryLightOutput, this runs the whole scheduler without a robot. Don't mix with start().
+     */
+    public static void tick()
+    {
+        if (!kInstance.manual)
+        {
+            kInstance.manual = true;
+            kInstance.initialize();
+        }
+        kInstance.execute();
+    }
+
+    /**
+     * Returns the handle of the named light segment with the given name, or null if there isn't one.
+     * Look this up once and pass it to the other methods to skip finding the segment by name.
+     */
+    public static SegmentHandle getSegment(String name)
+    {
+        return kInstance.config.getSegmentHandle(name);
     }
 
     /**
@@ -43,7 +70,14 @@ public class LightScheduler extends Command
      */
     public static Object getState(String name)
     {
-        return kInstance.mGetState(name);
+        return kInstance.mGetState(kInstance.getSegmentId(name));
+    }
+    /**
+     * Returns the current state of the given light segment.
+     */
+    public static Object getState(SegmentHandle segment)
+    {
+        return kInstance.mGetState(segment.id);
     }
 
     /**
@@ -51,7 +85,14 @@ public class LightScheduler extends Command
      */
     public static LightPattern getPattern(String name)
     {
-        return kInstance.mGetPattern(name);
+        return kInstance.mGetPattern(kInstance.getSegmentId(name));
+    }
+    /**
+     * Returns the current pattern of the given light segment.
+     */
+    public static LightPattern getPattern(SegmentHandle segment)
+    {
+        return kInstance.mGetPattern(segment.id);
     }
 
     /**
@@ -61,9 +102,49 @@ public class LightScheduler extends Command
     public static LightStatusRequest requestState(String name, Object state)
     {
         LightStatusRequest request = new LightStatusRequest(state);
-        kInstance.mRequestState(name, request);
+        kInstance.mRequestState(kInstance.getSegmentId(name), request);
+        return request;
+    }
+    /**
+     * Request that a particular segment change its state to the given one.
+     * If the priority if the current state is above the new one, this request is ignored.
+     */
+    public static LightStatusRequest requestState(SegmentHandle segment, Object state)
+    {
+        LightStatusRequest request = new LightStatusRequest(state);
+        kInstance.mRequestState(segment.id, request);
         return request;
     }
+    /**
+     * Request that a particular named segment change its state to the given one, on behalf of an owner.
+     * Each owner has a single request per segment, so calling this again with the same owner updates that
+     * request instead of adding another one. This makes it safe to call every tick, such as from periodic().
+     * If the priority if the current state is above the new one, this request is ignored.
+     */
+    public static LightStatusRequest requestState(Object owner, String name, Object state)
+    {
+        return kInstance.mRequestKeyedState(kInstance.getSegmentId(name), owner, state);
+    }
+    /**
+     * Request that a particular segment change its state to the given one, on behalf of an owner.
+     * Each owner has a single request per segment, so calling this again with the same owner updates that
+     * request instead of adding another one. This makes it safe to call every tick, such as from periodic().
+     * If the priority if the current state is above the new one, this request is ignored.
+     */
+    public static LightStatusRequest requestState(Object owner, SegmentHandle segment, Object state)
+    {
+        return kInstance.mRequestKeyedState(segment.id, owner, state);
+    }
+    /** Disposes of the request an owner has made for the named segment with the given name, if there is one. */
+    public static void releaseState(Object owner, String name)
+    {
+        kInstance.mReleaseKeyedState(kInstance.getSegmentId(name), owner);
+    }
+    /** Disposes of the request an owner has made for the given segment, if there is one. */
+    public static void releaseState(Object owner, SegmentHandle segment)
+    {
+        kInstance.mReleaseKeyedState(segment.id, owner);
+    }
     /**
      * Requests that a specific group of segments change their states to another.
      * If the priority of the current state of any named segments are above the new one, those
@@ -84,10 +165,49 @@ public class LightScheduler extends Command
     {
         LightStatusRequest request = new LightStatusRequest(state);
         for (int i = 0; i < kInstance.config.segments.size(); i++)
-            kInstance.mRequestState(kInstance.config.segments.get(i).name, request);
+            kInstance.mRequestState(kInstance.config.segments.get(i).getHandle().id, request);
         return request;
     }
 
+    /**
+     * Returns the number of outstanding requests for the named segment with the given name. This should
+     * stay flat over time. If it keeps growing, requests are being made without being disposed of.
+     */
+    public static int getRequestCount(String name)
+    {
+        return kInstance.mGetRequestCount(kInstance.getSegmentId(name));
+    }
+    /**
+     * Returns the number of outstanding requests for the given segment. This should stay flat over time.
+     * If it keeps growing, requests are being made without being disposed of.
+     */
+    public static int getRequestCount(SegmentHandle segment)
+    {
+        return kInstance.mGetRequestCount(segment.id);
+    }
+
+    /**
+     * Returns how long it took, in seconds, for the last frame drawn on the render thread to reach the strip.
+     * This is measured from when the main loop handed over the patterns. Always 0 without a render thread.
+     */
+    public static double getRenderLatency() { return kInstance.renderLatency; }
+    /** Returns the longest render latency seen since the scheduler was refreshed, in seconds. */
+    public static double getMaxRenderLatency() { return kInstance.maxRenderLatency; }
+
+    /**
+     * Returns the timings collected since the scheduler was last refreshed, or null if metrics
+     * aren't turned on (see {@link LightSchedulerConfig#withMetrics()}).
+     */
+    public static LightMetrics getMetrics() { return kInstance.metrics; }
+
+    /**
+     * Prints every log message that's still waiting on the calling thread. Messages are normally
+     * printed on a background thread shortly after they're logged.
+     */
+    public static void flushLogs() { kInstance.logger.flush(); }
+    /** Returns how many log messages were dropped because they were logged faster than they could be printed. */
+    public static long getDroppedLogCount() { return kInstance.logger.getDroppedCount(); }
+
     /**
      * Returns the total amount of ticks the light scheduler has been active for.
      */
@@ -95,14 +215,50 @@ public class LightScheduler extends Command
 
     private LightSchedulerConfig config;
 
-    private AddressableLED[] strips;
-    private AddressableLEDBuffer[] buffers;
-    private HashMap<String, AddressableLEDBufferView> namedSegmentToView;
-
-    private HashMap<String, ArrayList<LightStatusRequest>> segmentRequests;
-    private HashMap<String, Object> chosenStates;
+    // Log messages are printed on their own thread, since console output can take a while.
+    private static final int kLogCapacity = 256;
+    private final LightLogger logger = new LightLogger(kLogCapacity, () -> config.logLevel);
+
+    private LightOutput[] outputs;
+    private LightBuffer[] stripFrames;
+    private boolean[] stripsChanged;
+
+    // Per-segment state, indexed by the ID assigned to each segment on refresh.
+    private NamedLightSegment[] segments;
+    private int[] segmentStarts, segmentLengths;
+    private int[] segmentStrips;
+    private LightRequestQueue[] segmentRequests;
+    // Mirrors copy the frame of another segment instead of drawing their own.
+    private int[] mirrorSources;
+    private int[][] mirrorIndices;
+    private int[][] stripsShowing;
+    private Object[] chosenStates;
+    private int[] reportedRequestCounts;
+    private LightStateIndex[] stateIndices;
+    private HashMap<String, SegmentHandle> nameToHandle;
+
+    // The last frame drawn for each segment, when drawing on the main thread.
+    private SegmentFrame[] frames;
+    // The last frame sent for each segment, however it was drawn.
+    private LightBuffer[] drawnFrames;
+
+    // Used to draw segments in parallel, if turned on.
+    private ForkJoinPool renderPool;
+    private ParallelFrameDrawer parallelDrawer;
+    private LightPattern[] drawPatterns;
+    private boolean[] drawChanged;
+
+    // Used instead when drawing on a separate thread.
+    private LightRenderThread renderThread;
+    private long[] sentStripVersions;
+    private double renderLatency, maxRenderLatency;
+
+    // Null unless metrics are turned on, in which case nothing is timed at all.
+    private LightMetrics metrics;
 
     private boolean initialized;
+    // Whether the scheduler is being ticked by hand.
+    private boolean manual;
 
     private LightScheduler()
     {
@@ -113,19 +269,51 @@ public class LightScheduler extends Command
     private void freeStrips()
     {
         initialized = false;
-        if (strips != null)
+        if (renderThread != null)
+        {
+            renderThread.close();
+            renderThread = null;
+        }
+        if (outputs != null)
         {
             log(0, "Freeing strip data due to a refresh or initialization.");
-            for (int i = 0; i < strips.length; i++)
+            for (int i = 0; i < outputs.length; i++)
             {
-                strips[i].close();
+                outputs[i].close();
                 log(0, "Freed strip %d", i);
             }
         }
-        if (namedSegmentToView != null) namedSegmentToView.clear();
-        if (segmentRequests != null) segmentRequests.clear();
-        if (chosenStates != null) chosenStates.clear();
-        if (warningCooldownTimer != null) warningCooldownTimer.stop();
+        outputs = null;
+        stripFrames = null;
+        if (segments != null)
+        {
+            // Invalidate the handles of the old segments. They are re-assigned on refresh.
+            for (int i = 0; i < segments.length; i++) segments[i].getHandle().id = -1;
+        }
+        segments = null;
+        segmentStarts = null;
+        segmentLengths = null;
+        segmentStrips = null;
+        mirrorSources = null;
+        mirrorIndices = null;
+        stripsShowing = null;
+        stripsChanged = null;
+        frames = null;
+        drawnFrames = null;
+        if (renderPool != null)
+        {
+            renderPool.shutdown();
+            renderPool = null;
+        }
+        parallelDrawer = null;
+        drawPatterns = null;
+        drawChanged = null;
+        sentStripVersions = null;
+        segmentRequests = null;
+        chosenStates = null;
+        reportedRequestCounts = null;
+        stateIndices = null;
+        nameToHandle = null;
     }
     private void refreshStrips()
     {
@@ -157,8 +345,8 @@ public class LightScheduler extends Command
             }
             if (!added)
             {
+                portToIndex.put(segment.port, stripInfo.size());
                 stripInfo.add(Pair.of(segment.port, desiredLength));
-                portToIndex.put(segment.port, i);
             }
         }
 
@@ -171,42 +359,134 @@ public class LightScheduler extends Command
             return;
         }
 
-        strips = new AddressableLED[stripCount];
-        buffers = new AddressableLEDBuffer[stripCount];
+        outputs = new LightOutput[stripCount];
+        stripFrames = new LightBuffer[stripCount];
+        stripsChanged = new boolean[stripCount];
         for (int i = 0; i < stripCount; i++)
         {
             Pair<Integer, Integer> info = stripInfo.get(i);
             int port = info.getFirst(), length = info.getSecond();
 
-            @SuppressWarnings("resource")
-            AddressableLED strip = new AddressableLED(port);
-            strip.setLength(length);
+            outputs[i] = config.outputFactory.open(port, length);
+            stripFrames[i] = new LightBuffer(length);
+            stripsChanged[i] = true;
+        }
 
-            AddressableLEDBuffer buffer = new AddressableLEDBuffer(length);
+        // STEP 2: Give each segment an ID and find where it sits on its strip. Also start the state machine.
+        segments = new NamedLightSegment[segmentCount];
+        segmentStarts = new int[segmentCount];
+        segmentLengths = new int[segmentCount];
+        segmentStrips = new int[segmentCount];
+        frames = new SegmentFrame[segmentCount];
+        drawnFrames = new LightBuffer[segmentCount];
+        segmentRequests = new LightRequestQueue[segmentCount];
+        String[] segmentNames = new String[segmentCount];
+        chosenStates = new Object[segmentCount];
+        reportedRequestCounts = new int[segmentCount];
+        stateIndices = new LightStateIndex[segmentCount];
+        nameToHandle = new HashMap<>();
+        for (int i = 0; i < segmentCount; i++)
+        {
+            NamedLightSegment segment = config.segments.get(i);
+            segment.getHandle().id = i;
+            segments[i] = segment;
+            segmentStrips[i] = portToIndex.get(segment.port);
+            segmentStarts[i] = segment.startIndex;
+            segmentLengths[i] = segment.endIndex - segment.startIndex + 1;
+            segmentNames[i] = segment.name;
+            frames[i] = new SegmentFrame(segmentLengths[i], config.collectMetrics);
+            drawnFrames[i] = frames[i].get();
+            stateIndices[i] = new LightStateIndex();
+            segmentRequests[i] = new LightRequestQueue(stateIndices[i]);
+            nameToHandle.put(segment.name, segment.getHandle());
+        }
 
-            strips[i] = strip;
-            buffers[i] = buffer;
+        metrics = config.collectMetrics ? new LightMetrics(segmentNames) : null;
 
-            strip.start();
-            strip.setData(buffer);
-        }
+        // STEP 3: Point mirrors at the segments they copy, and work out which strips show each frame.
+        mirrorSources = new int[segmentCount];
+        mirrorIndices = new int[segmentCount][];
+        for (int i = 0; i < segmentCount; i++)
+        {
+            mirrorSources[i] = -1;
+            String sourceName = segments[i].mirrorOf;
+            if (sourceName == null) continue;
+
+            SegmentHandle source = nameToHandle.get(sourceName);
+            if (source == null || source.id == i || segments[source.id].mirrorOf != null)
+            {
+                log(3, "Named light segment \"%s\" can't mirror \"%s\". The source must be another segment that isn't a mirror itself. It will show its own states instead.",
+                    segments[i].name,
+                    sourceName);
+                continue;
+            }
+            mirrorSources[i] = source.id;
+
+            int length = segmentLengths[i], sourceLength = segmentLengths[source.id];
+            boolean identity = length == sourceLength && !segments[i].mirrorReversed && Math.floorMod(segments[i].mirrorOffset, sourceLength) == 0;
+            if (identity) continue;
 
-        // STEP 2: Create views by name and add them to the hash map. Also start the state machine.
-        namedSegmentToView = new HashMap<>();
-        segmentRequests = new HashMap<>();
-        chosenStates = new HashMap<>();
+            int[] indices = new int[length];
+            for (int j = 0; j < length; j++)
+            {
+                int index = segments[i].mirrorReversed ? length - 1 - j : j;
+                indices[j] = Math.floorMod(index + segments[i].mirrorOffset, sourceLength);
+            }
+            mirrorIndices[i] = indices;
+        }
+        stripsShowing = new int[segmentCount][];
         for (int i = 0; i < segmentCount; i++)
         {
-            NamedLightSegment segment = config.segments.get(i);
-            AddressableLEDBufferView view = buffers[portToIndex.get(segment.port)].createView(segment.startIndex, segment.endIndex);
-            namedSegmentToView.put(segment.name, view);
-            segmentRequests.put(segment.name, new ArrayList<>());
-            chosenStates.put(segment.name, null);
+            if (mirrorSources[i] >= 0)
+            {
+                stripsShowing[i] = new int[0];
+                continue;
+            }
+
+            ArrayList<Integer> showing = new ArrayList<>();
+            showing.add(segmentStrips[i]);
+            for (int j = 0; j < segmentCount; j++)
+            {
+                if (mirrorSources[j] == i && !showing.contains(segmentStrips[j])) showing.add(segmentStrips[j]);
+            }
+            stripsShowing[i] = new int[showing.size()];
+            for (int j = 0; j < showing.size(); j++) stripsShowing[i][j] = showing.get(j);
+        }
+
+        // STEP 4: Compile the states into a lookup table for each segment.
+        for (int i = 0; i < config.states.size(); i++)
+        {
+            LightStatusConfig state = config.states.get(i);
+            SegmentHandle handle = nameToHandle.get(state.appliesTo);
+            if (handle != null && !stateIndices[handle.id].add(state))
+            {
+                log(2, "Named light segment \"%s\" has more than one entry for state %s. The last one's pattern is shown, and the first one's priority is used.",
+                    state.appliesTo,
+                    state.state.toString());
+            }
         }
 
-        // Other stuff        
-        warningCooldownTimer = new Timer();
-        warningCooldownTimer.start();
+        // STEP 5: Set up parallel drawing and the render thread, if we're using them.
+        if (config.parallelPixelThreshold > 0)
+        {
+            // The common pool leaves a core for the caller, which is only one thread on a roboRIO.
+            renderPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            parallelDrawer = new ParallelFrameDrawer(renderPool, config.parallelPixelThreshold);
+            drawPatterns = new LightPattern[segmentCount];
+            drawChanged = new boolean[segmentCount];
+        }
+        if (config.renderOnThread)
+        {
+            renderThread = new LightRenderThread(segmentLengths, stripsShowing, stripCount, parallelDrawer, config.collectMetrics,
+                e -> log(3, "The render thread ran into an error: %s", e.toString()));
+            sentStripVersions = new long[stripCount];
+            renderLatency = 0;
+            maxRenderLatency = 0;
+            renderThread.start();
+        }
+
+        // Other stuff
+        ticksSinceWarnings = 0;
         initialized = true;
     }
 
@@ -230,69 +510,175 @@ public class LightScheduler extends Command
     {
         absoluteTicks++;
         if (!initialized) return;
+        long tickStart = metrics == null ? 0 : System.nanoTime();
 
-        // Check for problems.
-        if (warningCooldownTimer.hasElapsed(1.0))
+        // Check for problems about once a second.
+        if (++ticksSinceWarnings >= kWarningIntervalTicks)
         {
             checkOverlap();
             checkSamePriority();
-            warningCooldownTimer.restart();
+            checkRequestCounts();
+            ticksSinceWarnings = 0;
         }
 
-        // Apply patterns to views depending on state.
-        for (int i = 0; i < config.segments.size(); i++)
+        if (renderThread == null && parallelDrawer != null)
         {
-            NamedLightSegment segment = config.segments.get(i);
-            if (!segment.enabled) continue;
+            // Work out every segment's pattern first, then draw them all at once.
+            for (int i = 0; i < segments.length; i++)
+            {
+                drawPatterns[i] = null;
+                if (!segments[i].enabled || mirrorSources[i] >= 0) continue;
 
-            LightPattern pattern = mGetPattern(segment.name);
-            pattern.setCurrentTick(absoluteTicks);
-            pattern.applyTo(namedSegmentToView.get(segment.name));
+                drawPatterns[i] = resolvePattern(i);
+                drawPatterns[i].setCurrentTick(absoluteTicks);
+            }
+            parallelDrawer.draw(frames, drawPatterns, drawChanged);
+            for (int i = 0; i < segments.length; i++)
+            {
+                if (metrics != null && drawPatterns[i] != null) metrics.recordRender(i, frames[i].getDrawNanos());
+                if (drawChanged[i])
+                {
+                    for (int strip : stripsShowing[i]) stripsChanged[strip] = true;
+                }
+                drawnFrames[i] = frames[i].get();
+            }
+            sendChangedStrips();
         }
+        else if (renderThread == null)
+        {
+            // Draw each segment's frame depending on state.
+            for (int i = 0; i < segments.length; i++)
+            {
+                if (!segments[i].enabled || mirrorSources[i] >= 0) continue;
 
-        // Apply buffers.
-        for (int i = 0; i < strips.length; i++) strips[i].setData(buffers[i]);
-    }
-
-    private Object mGetState(String name)
-    {
-        if (!initialized) return null;
-        ArrayList<LightStatusRequest> requests = segmentRequests.get(name);
-        Object state = null;
-        int priority = Integer.MIN_VALUE;
-        for (int i = 0; i < requests.size(); i++)
+                LightPattern pattern = resolvePattern(i);
+                pattern.setCurrentTick(absoluteTicks);
+                if (frames[i].draw(pattern))
+                {
+                    for (int strip : stripsShowing[i]) stripsChanged[strip] = true;
+                }
+                if (metrics != null) metrics.recordRender(i, frames[i].getDrawNanos());
+                drawnFrames[i] = frames[i].get();
+            }
+            sendChangedStrips();
+        }
+        else
         {
-            LightStatusRequest request = requests.get(i);
-            if (request.isDisposed())
+            // Send whatever the render thread has finished since last tick.
+            LightRenderThread.FrameSet finished = renderThread.takeFrames();
+            if (finished != null)
             {
-                requests.remove(i);
-                i--;
-                continue;
+                // These stay ours until the next call to takeFrames().
+                drawnFrames = finished.frames;
+                for (int i = 0; i < outputs.length; i++)
+                {
+                    if (finished.stripVersions[i] == sentStripVersions[i]) continue;
+                    sendStrip(i, finished.frames);
+                    sentStripVersions[i] = finished.stripVersions[i];
+                }
+
+                renderLatency = (System.nanoTime() - finished.publishedNanos) / 1e9;
+                if (renderLatency > maxRenderLatency) maxRenderLatency = renderLatency;
+
+                if (metrics != null)
+                {
+                    for (int i = 0; i < segments.length; i++)
+                    {
+                        if (finished.drawNanos[i] >= 0) metrics.recordRender(i, finished.drawNanos[i]);
+                    }
+                }
             }
-            else if (!request.isEnabled()) continue;
-            LightStatusConfig stateConfig = getStatusConfig(name, request.state);
-            if (stateConfig == null) continue;
-            else if (stateConfig.priority > priority)
+
+            // Then work out what each segment should show, and leave the drawing to the render thread.
+            for (int i = 0; i < segments.length; i++)
             {
-                state = request.state;
-                priority = stateConfig.priority;
+                boolean drawn = segments[i].enabled && mirrorSources[i] < 0;
+                renderThread.setPattern(i, drawn ? resolvePattern(i) : null);
             }
+            renderThread.publish(absoluteTicks);
+        }
+
+        if (metrics != null)
+        {
+            for (int i = 0; i < segments.length; i++) metrics.recordRequests(i, segmentRequests[i].size());
+            metrics.recordTick(System.nanoTime() - tickStart);
+        }
+    }
+
+    /** Works out the pattern a segment should draw this tick, timing it if metrics are on. */
+    private LightPattern resolvePattern(int id)
+    {
+        if (metrics == null) return mGetPattern(id);
+
+        long start = System.nanoTime();
+        LightPattern pattern = mGetPattern(id);
+        metrics.recordResolve(id, System.nanoTime() - start);
+        return pattern;
+    }
+
+    /** Sends the strips whose frames have changed since they were last sent. */
+    private void sendChangedStrips()
+    {
+        for (int i = 0; i < outputs.length; i++)
+        {
+            if (!stripsChanged[i]) continue;
+            sendStrip(i, drawnFrames);
+            stripsChanged[i] = false;
+        }
+    }
+    /** Copies the frames of every segment on a strip to its frame, then sends it. */
+    private void sendStrip(int strip, LightBuffer[] segmentFrames)
+    {
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        // Copy every segment on the strip in order, so overlapping segments layer the same way they always have.
+        LightBuffer stripFrame = stripFrames[strip];
+        for (int i = 0; i < segments.length; i++)
+        {
+            if (segmentStrips[i] != strip || !segments[i].enabled) continue;
+
+            int source = mirrorSources[i];
+            if (source < 0) segmentFrames[i].copyTo(stripFrame, segmentStarts[i]);
+            else segmentFrames[source].copyTo(stripFrame, segmentStarts[i], segmentLengths[i], mirrorIndices[i]);
         }
-        Object prevState = chosenStates.get(name);
+        outputs[strip].send(stripFrame);
+        if (metrics != null) metrics.recordOutput(System.nanoTime() - start);
+    }
+
+    private Object mGetState(int id)
+    {
+        if (!initialized || id < 0) return null;
+        if (mirrorSources[id] >= 0) id = mirrorSources[id]; // Mirrors show whatever their source shows.
+        LightRequestQueue requests = segmentRequests[id];
+
+        // Nothing has happened that could change the state, so skip the work.
+        if (!requests.needsResolve()) return chosenStates[id];
+        requests.markResolved();
+
+        LightRequestQueue.Entry winner = requests.peek();
+        Object state = winner == null ? null : winner.request.state;
+        int priority = winner == null ? Integer.MIN_VALUE : winner.priority;
+        Object prevState = chosenStates[id];
 
         // Dispose of any temporary transitions that are not chosen.
-        for (int i = 0; i < requests.size(); i++)
+        ArrayList<LightStatusRequest> temporaries = requests.temporaries;
+        for (int i = 0; i < temporaries.size(); i++)
         {
-            LightStatusRequest request = requests.get(i);
-            if (!request.temporary) continue;
+            LightStatusRequest request = temporaries.get(i);
+            if (request.isDisposed())
+            {
+                temporaries.remove(i);
+                i--;
+                continue;
+            }
 
-            LightPattern pattern = getPatternByState(name, state);
+            LightPattern pattern = getPatternByState(id, state);
             if (request.state != state ||
-                pattern.isComplete())
+                isComplete(id, pattern))
             {
-                if (prevState == request.state) pattern.onDisabled();
+                if (prevState == request.state) onPatterns(pattern::onDisabled);
                 request.dispose();
-                requests.remove(i);
+                temporaries.remove(i);
                 i--;
                 continue;
             }
@@ -301,26 +687,52 @@ public class LightScheduler extends Command
         if (!equalsNullSafe(prevState, state))
         {
             Object trueState = state;
-            LightPattern prevPattern = getPatternByState(name, prevState),
-                         newPattern = getPatternByState(name, state);
+            LightPattern prevPattern = getPatternByState(id, prevState),
+                         newPattern = getPatternByState(id, state);
 
             // We have a state change. If there exists a transition
             // between these two, go with that. Otherwise just set the
             // new state.
 
-            TransitionPair transState = new TransitionPair(prevState, state);
-            LightStatusConfig transition = getStatusConfig(name, transState);
+            LightStatusConfig transition = getTransitionConfig(id, prevState, state);
+            Object transFrom = prevState;
+            if (transition == null && prevState instanceof TransitionPair interrupted && !equalsNullSafe(interrupted.getSecond(), state))
+            {
+                // A transition is being interrupted. Carry on as if it had already finished.
+                transFrom = interrupted.getSecond();
+                transition = getTransitionConfig(id, transFrom, state);
+            }
+
+            boolean startedTransition = false;
             if (transition != null)
             {
                 if (transition.pattern instanceof LightTransition transPattern)
                 {
-                    newPattern = transPattern
-                        .withStartPattern(prevPattern)
-                        .withEndPattern(newPattern);
+                    // If a transition is being interrupted, start from whatever it was showing instead
+                    // of nesting it inside the new one. Otherwise quick changes would pile up
+                    // transitions that all have to be drawn every tick.
+                    LightPattern startPattern = prevPattern;
+                    if (prevPattern instanceof LightTransition)
+                    {
+                        startPattern = new SnapshotLightPattern(drawnFrames[id]);
+                        onPatterns(prevPattern::onDisabled);
+                    }
+
+                    TransitionPair transState = new TransitionPair(transFrom, state);
+                    LightPattern transStart = startPattern, transEnd = newPattern;
+                    onPatterns(() -> transPattern
+                        .withStartPattern(transStart)
+                        .withEndPattern(transEnd));
+                    newPattern = transPattern;
                     LightStatusRequest request = new LightStatusRequest(transState, true);
-                    mRequestState(name, request);
-                    transition.priority = priority + 1;
+                    if (transition.priority != priority + 1)
+                    {
+                        transition.priority = priority + 1;
+                        requests.onPriorityChanged(transition.state);
+                    }
+                    mRequestState(id, request);
                     state = transState;
+                    startedTransition = true;
                 }
                 else
                 {
@@ -328,52 +740,94 @@ public class LightScheduler extends Command
                     log(3, "The pattern associated with transitional state %s does not derive from LightPatternTransition, and as such cannot be used.",
                         transition.state.toString()
                     );
-                    prevPattern.onDisabled();
+                    onPatterns(prevPattern::onDisabled);
                 }
             }
-            else prevPattern.onDisabled();
+            else onPatterns(prevPattern::onDisabled);
 
-            if (prevPattern instanceof LightTransition prevTrans) newPattern.setStartTick(prevTrans.getContinuationTick());
-            else newPattern.setStartTick(absoluteTicks);
-            newPattern.onEnabled();
+            LightPattern enabledPattern = newPattern;
+            LightTransition continued = prevPattern instanceof LightTransition prevTrans && !startedTransition ? prevTrans : null;
+            int startTick = absoluteTicks;
+            onPatterns(() ->
+            {
+                if (continued != null) enabledPattern.setStartTick(continued.getContinuationTick());
+                else enabledPattern.setStartTick(startTick);
+                enabledPattern.onEnabled();
+            });
+            if (renderThread != null) renderThread.restart(id);
 
             Object displayPrevState = prevState, displayNewState = state;
             if (config.mergeTransitionLogs && displayNewState instanceof TransitionPair) displayNewState = trueState;
             if (!config.mergeTransitionLogs || !(displayPrevState instanceof TransitionPair))
             {
-                log(1, "Light segment \"%s\" has changed state: %s -> %s",
-                    name,
-                    displayPrevState == null ? "null" : displayPrevState.toString(),
-                    displayNewState == null ? "null" : displayNewState.toString());
+                if (config.logLevel <= 1) logger.logStateChange(1, segments[id].name, displayPrevState, displayNewState);
             }
-            chosenStates.put(name, state);
+            chosenStates[id] = state;
         }
         return state;
     }
-    private LightPattern mGetPattern(String name)
+    /**
+     * Runs something that changes a pattern, such as enabling it. With a render thread, patterns
+     * are only touched on that thread, so it's queued to run there before the next frame is drawn.
+     */
+    private void onPatterns(Runnable action)
     {
-        // Do not call this method when inside the mGetState method, as that
-        // will create a permanent recursive loop. Use getStatusConfig() instead.
-        Object curState = mGetState(name);
-        LightPattern pattern = config.unknownBehavior;
-        for (int j = 0; j < config.states.size(); j++)
+        if (renderThread != null)
         {
-            LightStatusConfig request = config.states.get(j);
-            if (!request.appliesTo.equals(name) || curState == null || !curState.equals(request.state)) continue;
-            pattern = request.pattern;
+            renderThread.queue(action);
+            return;
         }
-        return pattern;
+        action.run();
+        if (parallelDrawer != null) parallelDrawer.invalidate();
     }
-    private void mRequestState(String name, LightStatusRequest state)
+    /** Returns true if a segment's pattern is complete. With a render thread, that's whatever it last reported. */
+    private boolean isComplete(int id, LightPattern pattern)
     {
-        if (!initialized) return;
-        segmentRequests.get(name).add(state);
+        if (renderThread == null) return pattern.isComplete();
+        else return renderThread.isComplete(id, pattern);
+    }
+    private LightPattern mGetPattern(int id)
+    {
+        // Do not call this method when inside the mGetState method, as that
+        // will create a permanent recursive loop. Use getPatternByState() instead.
+        if (initialized && id >= 0 && mirrorSources[id] >= 0) id = mirrorSources[id];
+        Object curState = mGetState(id);
+        return getPatternByState(id, curState);
+    }
+    private void mRequestState(int id, LightStatusRequest state)
+    {
+        if (!initialized || id < 0) return;
+        segmentRequests[id].add(state);
+    }
+    private LightStatusRequest mRequestKeyedState(int id, Object owner, Object state)
+    {
+        if (!initialized || id < 0) return new LightStatusRequest(state);
+        return segmentRequests[id].addKeyed(owner, state);
+    }
+    private void mReleaseKeyedState(int id, Object owner)
+    {
+        if (!initialized || id < 0) return;
+        segmentRequests[id].removeKeyed(owner);
+    }
+    private int mGetRequestCount(int id)
+    {
+        if (!initialized || id < 0) return 0;
+        return segmentRequests[id].size();
+    }
+    private int getSegmentId(String name)
+    {
+        if (!initialized) return -1;
+        SegmentHandle handle = nameToHandle.get(name);
+        if (handle == null) return -1;
+        else return handle.id;
     }
 
     @Override
     public boolean runsWhenDisabled() { return true; }
 
-    private Timer warningCooldownTimer;
+    // Warnings are checked every this many ticks. The scheduler runs at 50 ticks per second.
+    private static final int kWarningIntervalTicks = 50;
+    private int ticksSinceWarnings;
     private void checkOverlap()
     {
         // Check if any segment overlaps any other segment.
@@ -399,6 +853,21 @@ public class LightScheduler extends Command
             }
         }
     }
+    private void checkRequestCounts()
+    {
+        // Check if any segment has piled up requests. Only warn again once it has doubled.
+        for (int i = 0; i < segments.length; i++)
+        {
+            int count = segmentRequests[i].size();
+            if (count <= config.requestWarningThreshold || count < reportedRequestCounts[i] * 2) continue;
+
+            log(2, "Named light segment \"%s\" has %d outstanding requests (%d owned). Dispose of requests when done with them, or request states with an owner.",
+                segments[i].name,
+                count,
+                segmentRequests[i].keyedSize());
+            reportedRequestCounts[i] = count;
+        }
+    }
     private void checkSamePriority()
     {
         // Check if two states have the same priority for a given named segment.
@@ -427,35 +896,22 @@ public class LightScheduler extends Command
             }
         }
     }
-    private LightStatusConfig getStatusConfig(String name, Object state)
+    private LightStatusConfig getTransitionConfig(int id, Object from, Object to)
     {
-        for (int i = 0; i < config.states.size(); i++)
-        {
-            LightStatusConfig request = config.states.get(i);
-            if (request.appliesTo.equals(name) && request.state.equals(state)) return request;
-        }
-        return null;
+        if (id < 0) return null;
+        else return stateIndices[id].getTransition(from, to);
     }
-    private LightPattern getPatternByState(String name, Object state)
+    private LightPattern getPatternByState(int id, Object state)
     {
-        LightStatusConfig config = getStatusConfig(name, state);
-        if (config == null) return this.config.unknownBehavior;
-        else return config.pattern;
+        LightPattern pattern = id < 0 ? null : stateIndices[id].getPattern(state);
+        if (pattern == null) return this.config.unknownBehavior;
+        else return pattern;
     }
 
     private void log(int level, String message, Object... args)
     {
         if (level < config.logLevel) return;
-        String prefix;
-        switch (level)
-        {
-            case 0: prefix = "DEBUG"; break;
-            case 1: prefix = "INFO"; break;
-            case 2: prefix = "WARN"; break;
-            case 3: prefix = "ERROR"; break;
-            default: prefix = "???"; break;
-        }
-        System.out.printf("[LIGHTS] %s: %s\n", prefix, String.format(message, args));
+        logger.log(level, message, args);
     }
 
     private boolean equalsNullSafe(Object a, Object b)
@@ -33,6 +33,39 @@ public class LightSchedulerConfig
      */
     public boolean mergeTransitionLogs;
 
+    /**
+     * The number of outstanding requests a single segment can have before the scheduler starts
+     * warning about it. A growing request count usually means requests are never disposed of.
+     */
+    public int requestWarningThreshold;
+
+    /**
+     * Draws patterns on a separate thread instead of in the main robot loop. The main loop only
+     * works out which pattern to show and sends finished frames, so heavy patterns can't slow it
+     * down. Frames reach the strip a tick later than usual. Patterns shown by the scheduler should
+     * not be changed from other threads while this is on.
+     */
+    public boolean renderOnThread;
+
+    /**
+     * Draws segments at the same time on a pool of threads, as long as there are at least this
+     * many LEDs to draw in total. Segments that share patterns are still drawn one at a time.
+     * Zero or less turns this off.
+     */
+    public int parallelPixelThreshold;
+
+    /**
+     * Collects timings for every tick, segment and strip into histograms, which can be read with
+     * LightScheduler.getMetrics(). When this is off, nothing is timed at all.
+     */
+    public boolean collectMetrics;
+
+    /**
+     * Opens the output for each strip. By default frames go to a real LED strip, but any output
+     * will do (see MemoryLightOutput).
+     */
+    public LightOutput.Factory outputFactory;
+
     /**
      * A collection of named light segments to use in the scheduler. Each named segment can
      * have its own state, or have its own pattern according to a global state.
@@ -55,9 +88,11 @@ public class LightSchedulerConfig
     private LightSchedulerConfig()
     {
         logLevel = 1;
+        requestWarningThreshold = 64;
         segments = new ArrayList<>();
         states = new ArrayList<>();
         unknownBehavior = new SolidLightPattern(Color.kBlack);
+        outputFactory = AddressableLightOutput::new;
     }
 
     /**
@@ -80,6 +115,64 @@ public class LightSchedulerConfig
         return this;
     }
 
+    /**
+     * Sets the number of outstanding requests a single segment can have before the scheduler
+     * starts warning about it. Returns this config instance.
+     */
+    public LightSchedulerConfig withRequestWarningThreshold(int threshold)
+    {
+        requestWarningThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Draws patterns on a separate thread instead of in the main robot loop. Frames reach the strip a tick
+     * later than usual. Returns this config instance.
+     */
+    public LightSchedulerConfig withRenderThread()
+    {
+        renderOnThread = true;
+        return this;
+    }
+
+    /**
+     * Draws segments in parallel once there are at least 512 LEDs to draw. Returns this config
+     * instance.
+     */
+    public LightSchedulerConfig withParallelRendering()
+    {
+        return withParallelRendering(512);
+    }
+    /**
+     * Draws segments in parallel once there are at least the given number of LEDs to draw. Below
+     * that, splitting the work up costs more than it saves. Returns this config instance.
+     */
+    public LightSchedulerConfig withParallelRendering(int minimumPixels)
+    {
+        parallelPixelThreshold = Math.max(1, minimumPixels);
+        return this;
+    }
+
+    /**
+     * Collects timings for every tick, segment and strip, which can be read with
+     * LightScheduler.getMetrics(). Returns this config instance.
+     */
+    public LightSchedulerConfig withMetrics()
+    {
+        collectMetrics = true;
+        return this;
+    }
+
+    /**
+     * Sets how the output for each strip is opened. Use MemoryLightOutput.factory() to run without
+     * any hardware. Returns this config instance.
+     */
+    public LightSchedulerConfig withOutput(LightOutput.Factory factory)
+    {
+        outputFactory = factory;
+        return this;
+    }
+
     /** Adds an existing named light segment to the scheduler. Returns this config instance. */
     public LightSchedulerConfig withNamedLightSegment(NamedLightSegment segment)
     {
@@ -92,6 +185,14 @@ public class LightSchedulerConfig
         if (!hasNamedLightSegment(name)) segments.add(new NamedLightSegment(name, port, startIndex, endIndex));
         return this;
     }
+    /**
+     * Constructs a new named light segment that shows whatever another segment shows, and adds
+     * it to the scheduler. The source is only drawn once per tick. Returns this config instance.
+     */
+    public LightSchedulerConfig withMirroredLightSegment(String name, int port, int startIndex, int endIndex, String source)
+    {
+        return withNamedLightSegment(new NamedLightSegment(name, port, startIndex, endIndex).mirroring(source));
+    }
     /** Adds a collection of existing named light segments to the scheduler. Returns this config instance. */
     public LightSchedulerConfig withNamedLightSegments(NamedLightSegment... segments)
     {
@@ -109,6 +210,17 @@ public class LightSchedulerConfig
         return this;
     }
 
+    /** Returns the handle for the named light segment with the given name, or null if there isn't one. */
+    public SegmentHandle getSegmentHandle(String name)
+    {
+        for (int i = 0; i < segments.size(); i++)
+        {
+            NamedLightSegment segment = segments.get(i);
+            if (segment.name.equals(name)) return segment.getHandle();
+        }
+        return null;
+    }
+
     /** Adds existing information about a given state to the scheduler. */
     public LightSchedulerConfig withNamedState(LightStatusConfig request)
     {
@@ -132,10 +244,17 @@ public class LightSchedulerConfig
     {
         return withNamedState(appliesTo, new TransitionPair(from, to), -1, transition);
     }
-    /** Adds new information about a given state to the scheduler. Applies to ALL CURRENTLY ADDED named segments. */
+    /**
+     * Adds new information about a given state to the scheduler. Applies to ALL CURRENTLY ADDED
+     * named segments, except mirrors, which just copy their source.
+     */
     public LightSchedulerConfig withStateAll(Object state, int priority, Supplier<LightPattern> pattern)
     {
-        for (int i = 0; i < segments.size(); i++) withNamedState(segments.get(i).name, state, priority, pattern.get());
+        for (int i = 0; i < segments.size(); i++)
+        {
+            NamedLightSegment segment = segments.get(i);
+            if (segment.mirrorOf == null) withNamedState(segment.name, state, priority, pattern.get());
+        }
         return this;
     }
     /** Defines a transitional state between two other defined states. Applies to ALL CURRENTLY ADDED named segments. */
@@ -0,0 +1,74 @@
+package betterlights;
+
+import java.util.HashMap;
+
+import betterlights.patterns.LightPattern;
+import betterlights.transitions.TransitionPair;
+
+/**
+ * The states of a single named segment, compiled from the scheduler configuration for fast
+ * lookup. Transitional states are keyed by their start and end states rather than by the
+ * pair object itself.
+ */
+class LightStateIndex
+{
+    private final HashMap<Object, LightStatusConfig> states;
+    // The scheduler has always shown the pattern of the last equal state, but used the priority of the first.
+    private final HashMap<Object, LightPattern> patterns;
+    private final HashMap<Object, HashMap<Object, LightStatusConfig>> transitions;
+
+    LightStateIndex()
+    {
+        states = new HashMap<>();
+        patterns = new HashMap<>();
+        transitions = new HashMap<>();
+    }
+
+    /**
+     * Adds a state to the index. If an equal state was already added, the first one's priority is
+     * kept but the last one's pattern is shown. Returns false if an equal state was already added.
+     */
+    boolean add(LightStatusConfig config)
+    {
+        if (config.state == null) return true;
+        else if (config.state instanceof TransitionPair pair)
+        {
+            HashMap<Object, LightStatusConfig> byEnd = transitions.get(pair.getFirst());
+            if (byEnd == null)
+            {
+                byEnd = new HashMap<>();
+                transitions.put(pair.getFirst(), byEnd);
+            }
+            return byEnd.putIfAbsent(pair.getSecond(), config) == null;
+        }
+        else
+        {
+            patterns.put(config.state, config.pattern);
+            return states.putIfAbsent(config.state, config) == null;
+        }
+    }
+
+    /** Returns the configuration for the given state, or null if there isn't one. */
+    LightStatusConfig get(Object state)
+    {
+        if (state instanceof TransitionPair pair) return getTransition(pair.getFirst(), pair.getSecond());
+        else return states.get(state);
+    }
+    /** Returns the pattern shown for the given state, or null if there isn't one. */
+    LightPattern getPattern(Object state)
+    {
+        if (state instanceof TransitionPair)
+        {
+            LightStatusConfig config = get(state);
+            return config == null ? null : config.pattern;
+        }
+        else return patterns.get(state);
+    }
+    /** Returns the configuration for the transition between two states, or null if there isn't one. */
+    LightStatusConfig getTransition(Object from, Object to)
+    {
+        HashMap<Object, LightStatusConfig> byEnd = transitions.get(from);
+        if (byEnd == null) return null;
+        else return byEnd.get(to);
+    }
+}
@@ -8,6 +8,7 @@ import betterlights.patterns.LightPattern;
 public class LightStatusConfig
 {
     public String appliesTo;
+    // Requests that were already made aren't re-sorted if this changes afterwards.
     public int priority;
     public Object state;
     public LightPattern pattern;
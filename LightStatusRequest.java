@@ -1,19 +1,26 @@
 package betterlights;
 
+import java.util.ArrayList;
+
 public class LightStatusRequest
 {
+    /** The state this request asks for. Change it with setState(), since the scheduler doesn't see direct writes. */
     public Object state;
     public boolean temporary;
 
     private boolean enabled;
     private boolean disposed;
 
+    // The place of this request in each segment queue it was added to.
+    private final ArrayList<LightRequestQueue.Entry> entries;
+
     LightStatusRequest(Object state)
     {
         this.state = state;
         temporary = false;
         enabled = true;
         disposed = false;
+        entries = new ArrayList<>(1);
     }
     LightStatusRequest(Object state, boolean temporary)
     {
@@ -21,6 +28,18 @@ public class LightStatusRequest
         this.temporary = temporary;
         enabled = true;
         disposed = false;
+        entries = new ArrayList<>(1);
+    }
+
+    /** Changes the state this request asks for. */
+    public void setState(Object state)
+    {
+        this.state = state;
+        for (int i = 0; i < entries.size(); i++)
+        {
+            LightRequestQueue.Entry entry = entries.get(i);
+            entry.queue.onStateChanged(entry);
+        }
     }
 
     public boolean isEnabled()
@@ -29,11 +48,27 @@ public class LightStatusRequest
     }
     public void enable()
     {
+        if (enabled || disposed) return;
         enabled = true;
+        for (int i = 0; i < entries.size(); i++)
+        {
+            LightRequestQueue.Entry entry = entries.get(i);
+            entry.queue.onEnabled(entry);
+        }
     }
+    /** Disables this request. If the request is temporary, it is disposed of as well. */
     public void disable()
     {
+        boolean wasEnabled = enabled;
         enabled = false;
+        if (temporary) dispose();
+        if (!wasEnabled || disposed) return;
+
+        for (int i = 0; i < entries.size(); i++)
+        {
+            LightRequestQueue.Entry entry = entries.get(i);
+            entry.queue.onDisabled(entry);
+        }
     }
 
     public boolean isDisposed()
@@ -42,6 +77,18 @@ public class LightStatusRequest
     }
     public void dispose()
     {
+        if (disposed) return;
         disposed = true;
+        for (int i = 0; i < entries.size(); i++)
+        {
+            LightRequestQueue.Entry entry = entries.get(i);
+            entry.queue.onDisposed(entry);
+        }
+        entries.clear();
+    }
+
+    void addEntry(LightRequestQueue.Entry entry)
+    {
+        entries.add(entry);
     }
 }
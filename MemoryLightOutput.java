@@ -0,0 +1,80 @@
+package betterlights;
+
+/**
+ * An output that records frames in memory instead of sending them anywhere, so the scheduler can
+ * run without any hardware. The most recent frames are kept in a ring of buffers allocated up
+ * front, along with when each one was sent. Older frames are overwritten.
+ *
+ * Pair it with LightScheduler.tick() to run the whole scheduler by hand, for tests and benchmarks.
+ */
+public class MemoryLightOutput implements LightOutput
+{
+    private final int port;
+    private final LightBuffer[] frames;
+    private final long[] sentNanos;
+    private long frameCount;
+    private boolean closed;
+
+    /** Creates an output that keeps the given number of frames of the given length. */
+    public MemoryLightOutput(int port, int length, int capacity)
+    {
+        this.port = port;
+        capacity = Math.max(1, capacity);
+        frames = new LightBuffer[capacity];
+        for (int i = 0; i < capacity; i++) frames[i] = new LightBuffer(length);
+        sentNanos = new long[capacity];
+    }
+
+    /** Returns a factory that opens memory outputs keeping the given number of frames. */
+    public static LightOutput.Factory factory(int capacity)
+    {
+        return (port, length) -> new MemoryLightOutput(port, length, capacity);
+    }
+
+    @Override
+    public void send(LightBuffer frame)
+    {
+        if (closed) return;
+
+        int slot = (int)(frameCount % frames.length);
+        frames[slot].copyFrom(frame);
+        sentNanos[slot] = System.nanoTime();
+        frameCount++;
+    }
+
+    @Override
+    public void close() { closed = true; }
+
+    public int getPort() { return port; }
+    public boolean isClosed() { return closed; }
+    /** Returns how many frames can be kept at once. */
+    public int getCapacity() { return frames.length; }
+    /** Returns how many frames have been sent in total, including ones that have been overwritten. */
+    public long getFrameCount() { return frameCount; }
+
+    /** Returns true if the frame with the given number (counting from 0) is still kept. */
+    public boolean hasFrame(long index)
+    {
+        return index >= 0 && index < frameCount && index >= frameCount - frames.length;
+    }
+    /**
+     * Returns the frame with the given number (counting from 0), or null if it isn't kept. The
+     * buffer is reused once the frame falls out of the ring.
+     */
+    public LightBuffer getFrame(long index)
+    {
+        if (!hasFrame(index)) return null;
+        else return frames[(int)(index % frames.length)];
+    }
+    /** Returns the System.nanoTime() of when the frame with the given number was sent, or -1 if it isn't kept. */
+    public long getFrameNanos(long index)
+    {
+        if (!hasFrame(index)) return -1;
+        else return sentNanos[(int)(index % frames.length)];
+    }
+    /** Returns the last frame sent, or null if nothing has been sent yet. */
+    public LightBuffer getLatestFrame()
+    {
+        return frameCount == 0 ? null : getFrame(frameCount - 1);
+    }
+}
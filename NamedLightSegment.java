@@ -18,6 +18,17 @@ public class NamedLightSegment
     /** Whether the segment is enabled or not. */
     public boolean enabled;
 
+    /** The name of the segment this one copies, or null if it shows its own states. */
+    public String mirrorOf;
+
+    /** Whether a mirror segment shows its source back to front. */
+    public boolean mirrorReversed;
+
+    /** How many LEDs a mirror segment shifts its source by. */
+    public int mirrorOffset;
+
+    private final SegmentHandle handle = new SegmentHandle(this);
+
     public NamedLightSegment(String name, int port, int length)
     {
         this.name = name;
@@ -35,6 +46,9 @@ public class NamedLightSegment
         enabled = true;
     }
 
+    /** Returns the handle the scheduler uses for this segment. */
+    public SegmentHandle getHandle() { return handle; }
+
     /** Sets the name of this light segment. Returns this config instance. */
     public NamedLightSegment withName(String name)
     {
@@ -54,6 +68,26 @@ public class NamedLightSegment
         this.endIndex = endIndex;
         return this;
     }
+    /**
+     * Makes this segment show whatever another segment shows, instead of having states of its own.
+     * The source is drawn once and copied here. Returns this config instance.
+     */
+    public NamedLightSegment mirroring(String source)
+    {
+        return mirroring(source, false, 0);
+    }
+    /**
+     * Makes this segment show whatever another segment shows, instead of having states of its own.
+     * LED i of this segment shows LED (i + offset) of the source, counting from the far end if
+     * reversed, and wrapping around if the lengths differ. Returns this config instance.
+     */
+    public NamedLightSegment mirroring(String source, boolean reversed, int offset)
+    {
+        mirrorOf = source;
+        mirrorReversed = reversed;
+        mirrorOffset = offset;
+        return this;
+    }
     /** Enables this named light segment. Remember to call LightScheduler.refresh()! Returns this config instance. */
     public NamedLightSegment enable()
     {
@@ -0,0 +1,190 @@
+package betterlights;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import betterlights.patterns.LightPattern;
+
+/**
+ * Draws the frames of several segments at the same time on a fork/join pool. Each segment draws
+ * into its own frame, so segments are independent as long as they don't share any patterns.
+ * Patterns keep state between frames, so a pattern that shows up on two segments can't be drawn
+ * by two threads at once. Segments that share anything are drawn one after another in a single
+ * task instead.
+ *
+ * Every segment's frame only depends on its own patterns, so the result is the same no matter
+ * how the work is split up. Below the pixel threshold, everything is drawn on the calling thread.
+ *
+ * Working out which segments share patterns means walking every tree, so the split and its tasks
+ * are kept until a segment's pattern changes, or until invalidate() says a tree was rewired. A
+ * frame with the same patterns as the last one doesn't allocate.
+ */
+class ParallelFrameDrawer
+{
+    private final ForkJoinPool pool;
+    private final int pixelThreshold;
+
+    // Only used while splitting.
+    private final IdentityHashMap<LightPattern, Integer> owners = new IdentityHashMap<>();
+    private final ArrayDeque<LightPattern> pending = new ArrayDeque<>();
+    private boolean[] isShared = new boolean[0];
+
+    // The patterns the tasks were split for. Split again when any of these change.
+    private LightPattern[] splitPatterns = new LightPattern[0];
+    private DrawTask[] tasks = new DrawTask[0];
+    private boolean stale;
+    private final RootTask root = new RootTask();
+
+    // What the tasks draw this frame. Only set while they run.
+    private SegmentFrame[] frames;
+    private LightPattern[] patterns;
+    private boolean[] changed;
+
+    ParallelFrameDrawer(ForkJoinPool pool, int pixelThreshold)
+    {
+        this.pool = pool;
+        this.pixelThreshold = pixelThreshold;
+    }
+
+    /**
+     * Draws every segment with a pattern, then marks which ones changed. Null patterns are
+     * skipped. Ticks should already be set.
+     */
+    void draw(SegmentFrame[] frames, LightPattern[] patterns, boolean[] changed)
+    {
+        int pixels = 0;
+        for (int i = 0; i < frames.length; i++)
+        {
+            changed[i] = false;
+            if (patterns[i] != null) pixels += frames[i].get().getLength();
+        }
+        if (pixels < pixelThreshold || pool.getParallelism() < 2)
+        {
+            for (int i = 0; i < frames.length; i++)
+            {
+                if (patterns[i] != null) changed[i] = frames[i].draw(patterns[i]);
+            }
+            return;
+        }
+
+        if (stale || !isSplitFor(patterns)) split(patterns);
+        this.frames = frames;
+        this.patterns = patterns;
+        this.changed = changed;
+        try
+        {
+            for (DrawTask task : tasks) task.reinitialize();
+            root.reinitialize();
+            pool.invoke(root);
+        }
+        finally
+        {
+            this.frames = null;
+            this.patterns = null;
+            this.changed = null;
+        }
+    }
+
+    /** Splits again next frame. Call this when a pattern's children may have changed, such as when a transition starts. */
+    void invalidate() { stale = true; }
+
+    private boolean isSplitFor(LightPattern[] patterns)
+    {
+        if (patterns.length != splitPatterns.length) return false;
+        for (int i = 0; i < patterns.length; i++)
+        {
+            if (patterns[i] != splitPatterns[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sorts segments into ones that share patterns with another segment and ones that don't, and
+     * makes a task for each independent segment and one for all the shared ones.
+     */
+    private void split(LightPattern[] patterns)
+    {
+        if (isShared.length < patterns.length) isShared = new boolean[patterns.length];
+        owners.clear();
+
+        for (int i = 0; i < patterns.length; i++)
+        {
+            isShared[i] = false;
+            if (patterns[i] == null) continue;
+
+            // Walk the whole tree. A pattern used twice within one segment is fine.
+            pending.push(patterns[i]);
+            while (!pending.isEmpty())
+            {
+                LightPattern node = pending.pop();
+                Integer owner = owners.putIfAbsent(node, i);
+                if (owner == null) node.forEachChild(pending::push);
+                else if (owner != i)
+                {
+                    isShared[owner] = true;
+                    isShared[i] = true;
+                }
+            }
+        }
+
+        owners.clear();
+
+        int independentCount = 0, sharedCount = 0;
+        for (int i = 0; i < patterns.length; i++)
+        {
+            if (patterns[i] == null) continue;
+            if (isShared[i]) sharedCount++;
+            else independentCount++;
+        }
+
+        int[] sharedIds = new int[sharedCount];
+        DrawTask[] tasks = new DrawTask[independentCount + (sharedCount > 0 ? 1 : 0)];
+        int task = 0, sharedIndex = 0;
+        for (int i = 0; i < patterns.length; i++)
+        {
+            if (patterns[i] == null) continue;
+            if (isShared[i]) sharedIds[sharedIndex++] = i;
+            else tasks[task++] = new DrawTask(this, new int[] { i });
+        }
+        if (sharedCount > 0) tasks[task] = new DrawTask(this, sharedIds);
+
+        this.tasks = tasks;
+        splitPatterns = patterns.clone();
+        stale = false;
+    }
+
+    /** Runs every task and waits for them. */
+    private class RootTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() { invokeAll(tasks); }
+    }
+
+    /** Draws a group of segments in order. */
+    private static class DrawTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final ParallelFrameDrawer drawer;
+        private final int[] ids;
+
+        DrawTask(ParallelFrameDrawer drawer, int[] ids)
+        {
+            this.drawer = drawer;
+            this.ids = ids;
+        }
+
+        @Override
+        protected void compute()
+        {
+            SegmentFrame[] frames = drawer.frames;
+            LightPattern[] patterns = drawer.patterns;
+            boolean[] changed = drawer.changed;
+            for (int id : ids) changed[id] = frames[id].draw(patterns[id]);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package betterlights;
+
+import betterlights.patterns.LightPattern;
+
+/** The last frame drawn for a single named segment, along with the pattern that drew it. */
+class SegmentFrame
+{
+    private LightBuffer current, next;
+    private LightPattern pattern;
+    private int revision;
+    // Only measured when asked for, so it costs nothing otherwise.
+    private final boolean timed;
+    private long drawNanos;
+
+    SegmentFrame(int length)
+    {
+        this(length, false);
+    }
+    SegmentFrame(int length, boolean timed)
+    {
+        current = new LightBuffer(length);
+        next = new LightBuffer(length);
+        this.timed = timed;
+    }
+
+    /** Returns the last frame that was drawn. */
+    LightBuffer get() { return current; }
+    /** Returns how long the last call to draw() took in nanoseconds, if this frame is timed. */
+    long getDrawNanos() { return drawNanos; }
+
+    /** Draws the next frame with the given pattern. Returns true if it's any different from the last one. */
+    boolean draw(LightPattern pattern)
+    {
+        if (!timed) return drawFrame(pattern);
+
+        long start = System.nanoTime();
+        boolean changed = drawFrame(pattern);
+        drawNanos = System.nanoTime() - start;
+        return changed;
+    }
+    private boolean drawFrame(LightPattern pattern)
+    {
+        // A time-invariant pattern draws the same frame every time, so skip it unless its settings changed.
+        int revision = pattern.getRevision();
+        if (pattern == this.pattern && revision == this.revision && pattern.isTimeInvariant()) return false;
+        this.pattern = pattern;
+        this.revision = revision;
+
+        // Draw over a copy of the last frame, in case the pattern doesn't set every LED.
+        next.copyFrom(current);
+        pattern.render(current, next);
+        if (next.contentEquals(current)) return false;
+
+        LightBuffer drawn = next;
+        next = current;
+        current = drawn;
+        return true;
+    }
+}
@@ -0,0 +1,25 @@
+package betterlights;
+
+/**
+ * A handle to a named light segment. Passing one to the scheduler instead of a name
+ * skips the name lookup, so it's the cheaper option for code that runs every tick.
+ * Handles stay valid across calls to LightScheduler.refresh().
+ */
+public final class SegmentHandle
+{
+    final NamedLightSegment segment;
+
+    // Assigned by the scheduler when it refreshes. Negative if the scheduler doesn't know this segment.
+    int id;
+
+    SegmentHandle(NamedLightSegment segment)
+    {
+        this.segment = segment;
+        id = -1;
+    }
+
+    /** Returns the name of the segment this handle refers to. */
+    public String getName() { return segment.name; }
+    /** Returns the ID the scheduler assigned to this segment, or -1 if it isn't registered yet. */
+    public int getId() { return id; }
+}
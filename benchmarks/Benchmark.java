@@ -0,0 +1,115 @@
+package betterlights.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A tiny benchmark harness with no dependencies. Each benchmark is warmed up until the JIT has
+ * had a chance to settle, then timed in several batches. The fastest batch is reported, since
+ * anything slower was slowed down by something else (GC, other processes, the OS).
+ *
+ * Allocation is measured per thread where the JVM supports it (HotSpot does), so a pattern that
+ * allocates every frame stands out even when it's fast.
+ */
+public final class Benchmark
+{
+    /** Something to measure. Return any value derived from the work, so it can't be optimized away. */
+    @FunctionalInterface
+    public interface Operation
+    {
+        int run();
+    }
+
+    /** The result of one benchmark. */
+    public static final class Result
+    {
+        public final String name;
+        public final int length;
+        public final double nanosPerOp;
+        // Negative if the JVM can't measure allocation.
+        public final double bytesPerOp;
+
+        Result(String name, int length, double nanosPerOp, double bytesPerOp)
+        {
+            this.name = name;
+            this.length = length;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    private static final int kBatches = 5;
+
+    // Results are folded in here, so the JIT can't prove the work is unused.
+    private static volatile int sink;
+
+    private final long warmupNanos, measureNanos;
+
+    /** Creates a harness that warms up and then measures each benchmark for about the given times. */
+    public Benchmark(long warmupMillis, long measureMillis)
+    {
+        warmupNanos = warmupMillis * 1_000_000;
+        measureNanos = measureMillis * 1_000_000;
+    }
+
+    /** Runs a single benchmark. The length is only reported, not used. */
+    public Result measure(String name, int length, Operation operation)
+    {
+        // Warm up, and work out how many operations fit in a batch along the way.
+        int accumulator = 0;
+        long operations = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < warmupNanos)
+        {
+            accumulator += operation.run();
+            operations++;
+        }
+        long batchSize = Math.max(1, operations * measureNanos / Math.max(1, warmupNanos) / kBatches);
+
+        double bestNanos = Double.MAX_VALUE;
+        long allocated = 0, measured = 0;
+        for (int batch = 0; batch < kBatches; batch++)
+        {
+            long bytesBefore = allocatedBytes();
+            long batchStart = System.nanoTime();
+            for (long i = 0; i < batchSize; i++) accumulator += operation.run();
+            long elapsed = System.nanoTime() - batchStart;
+            long bytesAfter = allocatedBytes();
+
+            bestNanos = Math.min(bestNanos, (double)elapsed / batchSize);
+            allocated += bytesAfter - bytesBefore;
+            measured += batchSize;
+        }
+        sink += accumulator;
+
+        double bytesPerOp = allocatedBytes() < 0 ? -1 : (double)allocated / measured;
+        return new Result(name, length, bestNanos, bytesPerOp);
+    }
+
+    // #region Allocation tracking.
+    private static final com.sun.management.ThreadMXBean kThreads = findThreadBean();
+
+    private static com.sun.management.ThreadMXBean findThreadBean()
+    {
+        try
+        {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean threads)) return null;
+            if (!threads.isThreadAllocatedMemorySupported()) return null;
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        catch (LinkageError | UnsupportedOperationException e)
+        {
+            // Not HotSpot, or the management module isn't there.
+            return null;
+        }
+    }
+    /** Returns the bytes allocated by this thread so far, or -1 if that can't be measured. */
+    private static long allocatedBytes()
+    {
+        if (kThreads == null) return -1;
+        else return kThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    // #endregion
+}
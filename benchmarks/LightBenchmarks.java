@@ -0,0 +1,238 @@
+package betterlights.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+import edu.wpi.first.wpilibj.util.Color;
+import betterlights.Gradient;
+import betterlights.LightBuffer;
+import betterlights.LightScheduler;
+import betterlights.LightSchedulerConfig;
+import betterlights.MemoryLightOutput;
+import betterlights.patterns.*;
+import betterlights.transitions.*;
+
+/**
+ * Benchmarks every built-in pattern, wrapper and transition at a range of strip lengths, plus
+ * the cost of a scheduler tick as segments and states are added. Patterns draw into plain
+ * LightBuffers, and the scheduler is ticked by hand into memory outputs, so no hardware (or
+ * HAL) is involved anywhere.
+ *
+ * Usage: LightBenchmarks [--filter text] [--lengths 10,100,1000] [--warmup ms] [--time ms] [--csv]
+ *
+ * Each row reports nanoseconds and bytes allocated per frame. With --csv the output can be kept
+ * and compared between runs.
+ */
+public final class LightBenchmarks
+{
+    private static final int[] kDefaultLengths = { 10, 100, 1000, 10000 };
+
+    private String filter = "";
+    private int[] lengths = kDefaultLengths;
+    private long warmupMillis = 300, measureMillis = 500;
+    private boolean csv;
+
+    public static void main(String[] args)
+    {
+        LightBenchmarks benchmarks = new LightBenchmarks();
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "--filter": benchmarks.filter = args[++i]; break;
+                case "--lengths": benchmarks.lengths = parseLengths(args[++i]); break;
+                case "--warmup": benchmarks.warmupMillis = Long.parseLong(args[++i]); break;
+                case "--time": benchmarks.measureMillis = Long.parseLong(args[++i]); break;
+                case "--csv": benchmarks.csv = true; break;
+                default:
+                    System.err.println("Unknown argument: " + args[i]);
+                    System.exit(1);
+            }
+        }
+        benchmarks.run();
+    }
+
+    private static int[] parseLengths(String list)
+    {
+        String[] parts = list.split(",");
+        int[] lengths = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) lengths[i] = Integer.parseInt(parts[i].trim());
+        return lengths;
+    }
+
+    private void run()
+    {
+        Benchmark harness = new Benchmark(warmupMillis, measureMillis);
+        if (csv) System.out.println("benchmark,length,ns_per_op,bytes_per_op");
+        else System.out.printf(Locale.ROOT, "%-40s %8s %14s %12s%n", "Benchmark", "Length", "ns/op", "B/op");
+
+        for (Case c : cases())
+        {
+            if (!c.name.contains(filter)) continue;
+            for (int length : lengths)
+            {
+                Benchmark.Operation operation = c.setup.apply(length);
+                Benchmark.Result result = harness.measure(c.name, length, operation);
+                print(result);
+                c.teardown.run();
+            }
+        }
+    }
+
+    private void print(Benchmark.Result result)
+    {
+        if (csv)
+        {
+            System.out.printf(Locale.ROOT, "%s,%d,%.1f,%.1f%n", result.name, result.length, result.nanosPerOp, result.bytesPerOp);
+        }
+        else
+        {
+            String bytes = result.bytesPerOp < 0 ? "n/a" : String.format(Locale.ROOT, "%.1f", result.bytesPerOp);
+            System.out.printf(Locale.ROOT, "%-40s %8d %14.1f %12s%n", result.name, result.length, result.nanosPerOp, bytes);
+        }
+    }
+
+    // #region Cases.
+    /** A named benchmark, set up fresh for every length. */
+    private static final class Case
+    {
+        final String name;
+        final IntFunction<Benchmark.Operation> setup;
+        final Runnable teardown;
+
+        Case(String name, IntFunction<Benchmark.Operation> setup, Runnable teardown)
+        {
+            this.name = name;
+            this.setup = setup;
+            this.teardown = teardown;
+        }
+    }
+
+    private static ArrayList<Case> cases()
+    {
+        ArrayList<Case> cases = new ArrayList<>();
+
+        // Patterns.
+        pattern(cases, "pattern/solid", () -> new SolidLightPattern(new Color(255, 128, 0)));
+        pattern(cases, "pattern/gradient", () -> new GradientLightPattern().withGradient(0, Gradient.rainbow()).withGamma(2.2));
+        pattern(cases, "pattern/gradient-animated", LightBenchmarks::animatedGradient);
+        pattern(cases, "pattern/bounce-smooth", () -> new BounceLightPattern(Color.kRed).smooth().withLength(5));
+        pattern(cases, "pattern/bounce-sharp", () -> new BounceLightPattern(Color.kRed).sharp().withLength(5));
+        pattern(cases, "pattern/progress-bar", () -> new ProgressBarLightPattern(() -> 0.6));
+        pattern(cases, "pattern/random", () -> new RandomLightPattern().withSeed(1));
+
+        // Wrappers, each over the same base pattern.
+        pattern(cases, "wrapper/blended", () -> animatedGradient().blend(new SolidLightPattern(Color.kWhite), 0.3));
+        pattern(cases, "wrapper/blinked", () -> animatedGradient().blink(5, 3));
+        pattern(cases, "wrapper/breathing", () -> animatedGradient().breathe(40));
+        pattern(cases, "wrapper/brightness", () -> animatedGradient().atBrightness(0.5));
+        pattern(cases, "wrapper/cached", () -> animatedGradient().cached());
+        pattern(cases, "wrapper/masked", () -> animatedGradient().mask(new BounceLightPattern()));
+        pattern(cases, "wrapper/offset", () -> animatedGradient().offsetBy(7));
+        pattern(cases, "wrapper/overlay", () -> new BounceLightPattern(Color.kBlue).overlayOn(animatedGradient()));
+        pattern(cases, "wrapper/reversed", () -> animatedGradient().reversed());
+        pattern(cases, "wrapper/scroll", () -> animatedGradient().scroll(0.37));
+        pattern(cases, "wrapper/chain", () -> animatedGradient().reversed().offsetBy(3).atBrightness(0.8).blend(new SolidLightPattern(Color.kWhite), 0.2));
+
+        // Transitions, restarted whenever they finish.
+        transition(cases, "transition/fade", () -> new FadeLightTransition().withDuration(50));
+        transition(cases, "transition/fade-color", () -> new FadeLightTransition().withDuration(50).withColor(Color.kWhite));
+        transition(cases, "transition/random", () -> new RandomLightTransition().withSeed(1));
+        transition(cases, "transition/swipe", () -> new SwipeLightTransition().withIntermediate(Color.kWhite, 3));
+
+        // The whole scheduler. The length is split between the segments.
+        scheduler(cases, 1, 2, false);
+        scheduler(cases, 4, 2, false);
+        scheduler(cases, 4, 16, false);
+        scheduler(cases, 16, 16, false);
+        // The same again with metrics on, to see what collecting them costs.
+        scheduler(cases, 4, 16, true);
+        return cases;
+    }
+
+    private static LightPattern animatedGradient()
+    {
+        return new GradientLightPattern()
+            .withGradient(0, Gradient.rainbow())
+            .withTwoColorGradient(0.5, Color.kBlue, Color.kWhite)
+            .withDuration(100)
+            .withGamma(2.2);
+    }
+
+    private static void pattern(ArrayList<Case> cases, String name, Supplier<LightPattern> factory)
+    {
+        cases.add(new Case(name, length ->
+        {
+            LightPattern pattern = factory.get();
+            LightBuffer reader = new LightBuffer(length), writer = new LightBuffer(length);
+            int[] tick = { 0 };
+            return () ->
+            {
+                pattern.setCurrentTick(tick[0]++);
+                pattern.render(reader, writer);
+                return writer.get(length - 1);
+            };
+        }, () -> { }));
+    }
+
+    private static void transition(ArrayList<Case> cases, String name, Supplier<LightTransition> factory)
+    {
+        cases.add(new Case(name, length ->
+        {
+            LightTransition transition = factory.get()
+                .withStartPattern(animatedGradient())
+                .withEndPattern(new BounceLightPattern(Color.kRed));
+            LightBuffer reader = new LightBuffer(length), writer = new LightBuffer(length);
+            int[] tick = { 0 };
+            return () ->
+            {
+                int now = tick[0]++;
+                transition.setCurrentTick(now);
+                if (now == 0 || transition.isComplete())
+                {
+                    transition.setStartTick(now);
+                    transition.onEnabled();
+                }
+                transition.render(reader, writer);
+                return writer.get(length - 1);
+            };
+        }, () -> { }));
+    }
+
+    private static void scheduler(ArrayList<Case> cases, int segmentCount, int stateCount, boolean metrics)
+    {
+        String name = String.format(Locale.ROOT, "scheduler/%d-segments-%d-states%s", segmentCount, stateCount, metrics ? "-metrics" : "");
+        cases.add(new Case(name, length ->
+        {
+            LightSchedulerConfig config = LightScheduler.configure()
+                .withLogLevel(3)
+                .withOutput(MemoryLightOutput.factory(2));
+            config.segments.clear();
+            config.states.clear();
+            config.collectMetrics = metrics;
+
+            int segmentLength = Math.max(1, length / segmentCount);
+            for (int i = 0; i < segmentCount; i++)
+            {
+                config.withNamedLightSegment("segment" + i, 0, i * segmentLength, (i + 1) * segmentLength - 1);
+            }
+            for (int i = 0; i < stateCount; i++)
+            {
+                int state = i;
+                config.withStateAll("state" + i, i, () -> state % 2 == 0 ? animatedGradient() : new BounceLightPattern(Color.kRed));
+            }
+            // The first tick sets up the strips, so only make requests after it.
+            LightScheduler.tick();
+            for (int i = 0; i < stateCount; i++) LightScheduler.requestState("state" + i);
+
+            return () ->
+            {
+                LightScheduler.tick();
+                return LightScheduler.getAbsoluteTicks();
+            };
+        }, LightScheduler::stop));
+    }
+    // #endregion
+}
@@ -3,6 +3,7 @@ package betterlights.patterns;
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
 
 /**
  * A pattern that displays a bouncing section of color across the segment. 
@@ -40,12 +41,14 @@ public class BounceLightPattern extends LightPattern
     public BounceLightPattern withColorFront(Color color)
     {
         colorFore = color;
+        markChanged();
         return this;
     }
     /** Sets the background color for this pattern. */
     public BounceLightPattern withColorBack(Color color)
     {
         colorBack = color;
+        markChanged();
         return this;
     }
 
@@ -57,6 +60,7 @@ public class BounceLightPattern extends LightPattern
     public BounceLightPattern withLength(int radius)
     {
         this.radius = radius;
+        markChanged();
         return this;
     }
     /**
@@ -66,6 +70,7 @@ public class BounceLightPattern extends LightPattern
     public BounceLightPattern smooth()
     {
         fade = true;
+        markChanged();
         return this;
     }
     /**
@@ -75,6 +80,7 @@ public class BounceLightPattern extends LightPattern
     public BounceLightPattern sharp()
     {
         fade = false;
+        markChanged();
         return this;
     }
 
@@ -85,6 +91,7 @@ public class BounceLightPattern extends LightPattern
     public BounceLightPattern withHardBounce()
     {
         hardBounce = true;
+        markChanged();
         return this;
     }
     /**
@@ -94,6 +101,7 @@ public class BounceLightPattern extends LightPattern
     public BounceLightPattern withWaveBounce()
     {
         hardBounce = false;
+        markChanged();
         return this;
     }
 
@@ -101,15 +109,28 @@ public class BounceLightPattern extends LightPattern
     public BounceLightPattern withMoveSpeed(double speed)
     {
         this.speed = speed;
+        markChanged();
         return this;
     }
 
+    @Override
+    public int getPeriod(int length)
+    {
+        // A hard bounce goes there and back in a fixed number of ticks, as long as that's a whole number.
+        if (!hardBounce || speed <= 0) return 0;
+        int trueRadius = fade ? radius - 1 : radius;
+        double ticks = (length - trueRadius * 2) * 2 / speed;
+        if (ticks < 1 || ticks > Integer.MAX_VALUE || ticks != Math.rint(ticks)) return 0;
+        else return (int)ticks;
+    }
+
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
         int length = reader.getLength(), tick = getTick();
 
         double center = getEffectCenter(length, tick);
+        int fore = ColorHelper.pack(colorFore), back = ColorHelper.pack(colorBack);
         for (int i = 0; i < length; i++)
         {
             double absDist = Math.abs((center - 0.5) - i);
@@ -118,7 +139,7 @@ public class BounceLightPattern extends LightPattern
             {
                 double dist = (double)absDist / radius;
                 // TODO: Gamma
-                writer.setLED(i, colorLerp(colorFore, colorBack, dist));
+                ColorHelper.write(writer, i, colorLerp(fore, back, dist));
             }
             else
             {
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
 import betterlights.Gradient;
 
 /** Displays a gradient of multiple colors on the segment. The gradient can be animated over time using keyframes. */
@@ -63,6 +64,7 @@ public class GradientLightPattern extends LightPattern
     public GradientLightPattern withDuration(int duration)
     {
         this.duration = duration;
+        markChanged();
         return this;
     }
 
@@ -70,13 +72,35 @@ public class GradientLightPattern extends LightPattern
     public GradientLightPattern withEndAsBeginning()
     {
         endAsBeginning = true;
+        markChanged();
         return this;
     }
 
     /** Do not interpolate between gradients over time. The gradients themselves may or may not still be interpolated. */
-    public GradientLightPattern sharp() { sharp = true; return this; }
+    public GradientLightPattern sharp() { sharp = true; markChanged(); return this; }
     /** Interpolate between gradients over time. This is the default behavior. The gradients themselves may or may not be interpolated. */
-    public GradientLightPattern smooth() { sharp = false; return this; }
+    public GradientLightPattern smooth() { sharp = false; markChanged(); return this; }
+
+    @Override
+    public boolean isTimeInvariant()
+    {
+        // Only a single frame of animation looks the same every tick.
+        return duration == 0 || animation.size() <= 1;
+    }
+    @Override
+    public int getPeriod(int length)
+    {
+        if (isTimeInvariant()) return 1;
+        else return duration;
+    }
+    @Override
+    public int getRevision()
+    {
+        // The gradients can be changed after they're added, so include theirs too.
+        int revision = super.getRevision();
+        for (int i = 0; i < animation.size(); i++) revision += animation.get(i).gradient.getRevision();
+        return revision;
+    }
 
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
@@ -95,7 +119,7 @@ public class GradientLightPattern extends LightPattern
             for (int i = 0; i < length; i++)
             {
                 double pos = i / (double)(length - 1);
-                writer.setLED(i, grad.getColor(pos, gamma));
+                ColorHelper.write(writer, i, grad.getPacked(pos, gamma));
             }
         }
         else
@@ -126,14 +150,14 @@ public class GradientLightPattern extends LightPattern
             for (int i = 0; i < length; i++)
             {
                 double pos = i / (double)(length - 1);
-                if (t == 0 || right == null) writer.setLED(i, left.gradient.getColor(pos, gamma));
+                if (t == 0 || right == null) ColorHelper.write(writer, i, left.gradient.getPacked(pos, gamma));
                 else
                 {
                     // It's lerpin' time.
-                    Color leftCol = left.gradient.getColor(pos, gamma),
-                          rightCol = right.gradient.getColor(pos, gamma);
+                    int leftCol = left.gradient.getPacked(pos, gamma),
+                        rightCol = right.gradient.getPacked(pos, gamma);
 
-                    writer.setLED(i, colorLerp(leftCol, rightCol, t));
+                    ColorHelper.write(writer, i, colorLerp(leftCol, rightCol, t));
                 }
             }
         }
@@ -152,6 +176,7 @@ public class GradientLightPattern extends LightPattern
             {
                 // Same time! Just replace it.
                 animation.set(index, entry);
+                markChanged();
                 return;
             }
             else index++;
@@ -159,6 +184,7 @@ public class GradientLightPattern extends LightPattern
 
         // Put the entry in.
         animation.add(index, entry);
+        markChanged();
     }
     private static class Entry
     {
@@ -1,6 +1,7 @@
 package betterlights.patterns;
 
 import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 import edu.wpi.first.units.Units;
 import edu.wpi.first.units.measure.Dimensionless;
@@ -13,6 +14,8 @@ import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
 import betterlights.ColorHelper;
+import betterlights.GammaTable;
+import betterlights.LightBuffer;
 import betterlights.patterns.wrappers.*;
 import betterlights.patterns.wrappers.implementations.*;
 
@@ -32,6 +35,14 @@ public abstract class LightPattern implements LEDPattern
     private int startTick;
 
     protected double gamma = 1.0;
+    private GammaTable gammaTable;
+
+    private int revision;
+
+    // The last frame this pattern was asked to draw, for patterns drawn more than once per frame.
+    private int drawnTick, drawnLength, drawnRevision, drawCount;
+    private LightBuffer drawn;
+    private boolean drawnKept;
 
     public int getTick()
     {
@@ -52,10 +63,74 @@ public abstract class LightPattern implements LEDPattern
     }
     public abstract void applyTo(LEDReader reader, LEDWriter writer);
 
+    /**
+     * Draws this pattern like applyTo(), but only once per frame. The same pattern can show up in
+     * several places in one tree (like {@code a.blend(a.reversed())}), or on several segments at
+     * once. Once a pattern has been drawn more than once for the same tick and length, later
+     * frames are drawn into a buffer once and copied to every place that asks for them. A new
+     * tick is a new frame, so nothing needs to be cleared by hand.
+     *
+     * Wrappers and transitions draw the patterns under them with this method. While a
+     * LightProfiler is running, every call is timed.
+     */
+    public final void render(LEDReader reader, LEDWriter writer)
+    {
+        LightProfiler profiler = LightProfiler.active;
+        if (profiler == null) renderFrame(reader, writer);
+        else profiler.profile(this, reader, writer);
+    }
+    void renderFrame(LEDReader reader, LEDWriter writer)
+    {
+        // Patterns that draw over what's already there can't be shared between different inputs.
+        if (readsInput())
+        {
+            applyTo(reader, writer);
+            return;
+        }
+
+        int tick = getTick(), length = reader.getLength(), revision = getRevision();
+        if (drawCount > 0 && tick == drawnTick && length == drawnLength && revision == drawnRevision)
+        {
+            // Drawn already this frame. The first time this happens the frame went straight to
+            // its writer, so draw it once more and keep it.
+            drawCount++;
+            if (!drawnKept) drawKept(reader, length);
+            drawn.writeTo(writer);
+            return;
+        }
+
+        // A new frame. Only keep it if this pattern was shared last frame too.
+        boolean shared = drawCount > 1;
+        drawnTick = tick;
+        drawnLength = length;
+        drawnRevision = revision;
+        drawCount = 1;
+        if (shared)
+        {
+            drawKept(reader, length);
+            drawn.writeTo(writer);
+        }
+        else
+        {
+            drawnKept = false;
+            applyTo(reader, writer);
+        }
+    }
+    private void drawKept(LEDReader reader, int length)
+    {
+        if (drawn == null) drawn = new LightBuffer();
+
+        // Start from the input, in case the pattern doesn't set every LED.
+        drawn.readFrom(reader);
+        applyTo(reader, drawn);
+        drawnKept = true;
+    }
+
     /** Sets the gamma value for color interpolation. If you don't know a good value, leave this unset. */
     public LightPattern withGamma(double gamma)
     {
         this.gamma = gamma;
+        markChanged();
         return this;
     }
 
@@ -66,10 +141,65 @@ public abstract class LightPattern implements LEDPattern
     public void onDisabled() { }
 
     public boolean isComplete() { return false; }
+
+    /**
+     * Returns true if this pattern draws the same thing no matter what tick it is. The scheduler
+     * keeps the last frame of a time-invariant pattern instead of drawing it again, until the
+     * pattern's revision changes.
+     */
+    public boolean isTimeInvariant() { return false; }
+    /**
+     * Returns a number that changes whenever the settings of this pattern change what it draws.
+     * Patterns with settings that can change after they are built should call markChanged().
+     */
+    public int getRevision() { return revision; }
+    /**
+     * Returns the number of ticks after which this pattern repeats itself exactly on a segment of
+     * the given length, or 0 if it doesn't. Time-invariant patterns repeat every tick.
+     */
+    public int getPeriod(int length) { return isTimeInvariant() ? 1 : 0; }
+    /**
+     * Returns true if what this pattern draws depends on the colors already on the LEDs it's
+     * drawn over. Patterns that read their input are always drawn fresh by render().
+     */
+    public boolean readsInput() { return false; }
+    /**
+     * Calls the given action with every pattern this one draws directly. The scheduler uses this
+     * to find patterns shared between segments, which can't be drawn on two threads at once.
+     */
+    public void forEachChild(Consumer<LightPattern> action) { }
     // #endregion
 
     // #region Helper functions.
+    /** Changes the revision of this pattern, so the scheduler knows to draw it again. */
+    protected void markChanged() { revision++; }
+
+    /** Returns the period of two periodic things combined, or 0 if either isn't periodic or the result is too long. */
+    protected static int combinePeriods(int a, int b)
+    {
+        if (a <= 0 || b <= 0) return 0;
+
+        int x = a, y = b;
+        while (y != 0)
+        {
+            int r = x % y;
+            x = y;
+            y = r;
+        }
+        long lcm = (long)a / x * b;
+        return lcm > Integer.MAX_VALUE ? 0 : (int)lcm;
+    }
+
     protected Color colorLerp(Color a, Color b, double t) { return ColorHelper.lerp(a, b, t, gamma); }
+    protected int colorLerp(int a, int b, double t) { return getGammaTable().lerp(a, b, t); }
+
+    /** Returns the lookup table for this pattern's gamma value. */
+    protected GammaTable getGammaTable()
+    {
+        // Subclasses are free to set the gamma field directly, so check it's still the right table.
+        if (gammaTable == null || gammaTable.gamma != gamma) gammaTable = GammaTable.of(gamma);
+        return gammaTable;
+    }
     // #endregion
 
     // #region Base LEDPattern methods.
@@ -121,6 +251,8 @@ public abstract class LightPattern implements LEDPattern
     public BreathingLightWrapper breathe(int period) { return new BreathingLightWrapper(this, period); }
     @Override public BreathingLightWrapper breathe(Time period) { return breathe((int)(period.in(Units.Seconds) * 50)); }
 
+    public CachedLightWrapper cached() { return new CachedLightWrapper(this); }
+
     public LightPattern overlayOn(LightPattern base) { return new OverlayLightWrapper(base, this); }
     @Override public LightPattern overlayOn(LEDPattern base) { return new OverlayLightWrapper(from(base), this); }
     // #endregion
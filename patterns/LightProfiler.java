@@ -0,0 +1,216 @@
+package betterlights.patterns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+
+import edu.wpi.first.wpilibj.LEDReader;
+import edu.wpi.first.wpilibj.LEDWriter;
+import betterlights.LightBuffer;
+
+/**
+ * Times every pattern as it's drawn, so a slow pattern tree can be narrowed down to the node
+ * that's actually slow. While a profiler is running, every call to {@link LightPattern#render}
+ * on any thread is timed. Each node keeps its total time, and its self time, which leaves out the
+ * time spent drawing the patterns under it.
+ *
+ * Works the same under the scheduler, including when it's ticked by hand with no hardware:
+ *
+ * <pre>{@code
+ * LightProfiler profiler = LightProfiler.start();
+ * for (int i = 0; i < 500; i++) LightScheduler.tick();
+ * profiler.stop();
+ * System.out.print(profiler);
+ * }</pre>
+ *
+ * Chains of wrappers that only change colors or positions are fused into a single pass, so only
+ * the top and bottom of such a chain are drawn through render(). The wrappers in between still
+ * show up in the tree, marked as fused, and their time is counted in the self time of the top.
+ * Patterns that weren't drawn at all, like a solid color baked into a fused wrapper or the half
+ * of a transition that wasn't needed, are marked as not drawn.
+ *
+ * Only one profiler runs at a time. Timing adds a little to every draw, so the numbers are best
+ * compared with each other rather than with an unprofiled run.
+ */
+public final class LightProfiler
+{
+    // Read on every render, so it has to be visible to the render thread and the parallel drawer.
+    static volatile LightProfiler active;
+
+    /** Starts a new profiler, stopping whichever one was running before. */
+    public static LightProfiler start()
+    {
+        LightProfiler profiler = new LightProfiler();
+        active = profiler;
+        return profiler;
+    }
+
+    /**
+     * Draws a pattern by itself for the given number of ticks on a segment of the given length,
+     * and returns the profile. Handy for trying out a pattern before it goes anywhere near a robot.
+     */
+    public static LightProfiler profile(LightPattern pattern, int length, int ticks)
+    {
+        LightBuffer reader = new LightBuffer(length), writer = new LightBuffer(length);
+        pattern.setStartTick(0);
+        pattern.onEnabled();
+
+        LightProfiler profiler = start();
+        for (int tick = 0; tick < ticks; tick++)
+        {
+            pattern.setCurrentTick(tick);
+            pattern.render(reader, writer);
+        }
+        profiler.stop();
+
+        pattern.onDisabled();
+        return profiler;
+    }
+
+    private final IdentityHashMap<LightPattern, Node> nodes = new IdentityHashMap<>();
+    // Patterns drawn directly by the scheduler (or whoever), in the order they were first seen.
+    private final ArrayList<LightPattern> roots = new ArrayList<>();
+    private final ThreadLocal<Stack> stacks = ThreadLocal.withInitial(Stack::new);
+
+    private LightProfiler() { }
+
+    /** Stops timing. The results stay around until reset. */
+    public void stop()
+    {
+        if (active == this) active = null;
+    }
+    /** Returns true if this profiler is timing draws right now. */
+    public boolean isRunning() { return active == this; }
+
+    /** Forgets everything timed so far. */
+    public synchronized void reset()
+    {
+        nodes.clear();
+        roots.clear();
+    }
+
+    void profile(LightPattern pattern, LEDReader reader, LEDWriter writer)
+    {
+        Stack stack = stacks.get();
+        int depth = stack.push();
+        long start = System.nanoTime();
+        try
+        {
+            pattern.renderFrame(reader, writer);
+        }
+        finally
+        {
+            long total = System.nanoTime() - start;
+            long children = stack.pop(total);
+            record(pattern, depth == 0, total, total - children, reader.getLength());
+        }
+    }
+    private synchronized void record(LightPattern pattern, boolean root, long total, long self, int pixels)
+    {
+        Node node = nodes.get(pattern);
+        if (node == null)
+        {
+            node = new Node();
+            nodes.put(pattern, node);
+        }
+        if (root && !node.root)
+        {
+            node.root = true;
+            roots.add(pattern);
+        }
+        node.calls++;
+        node.totalNanos += total;
+        node.selfNanos += self;
+        node.pixels += pixels;
+    }
+
+    /** Returns how many times the given pattern was drawn. */
+    public synchronized long getCalls(LightPattern pattern) { Node node = nodes.get(pattern); return node == null ? 0 : node.calls; }
+    /** Returns the time spent drawing the given pattern, including the patterns under it, in nanoseconds. */
+    public synchronized long getTotalNanos(LightPattern pattern) { Node node = nodes.get(pattern); return node == null ? 0 : node.totalNanos; }
+    /** Returns the time spent drawing the given pattern, leaving out the patterns under it, in nanoseconds. */
+    public synchronized long getSelfNanos(LightPattern pattern) { Node node = nodes.get(pattern); return node == null ? 0 : node.selfNanos; }
+    /** Returns how many LEDs the given pattern drew in total. */
+    public synchronized long getPixels(LightPattern pattern) { Node node = nodes.get(pattern); return node == null ? 0 : node.pixels; }
+
+    /**
+     * Returns every pattern that was drawn as a tree, with its calls, total and self time, its
+     * share of the overall time, and how many million LEDs it draws per second.
+     */
+    @Override
+    public synchronized String toString()
+    {
+        long overall = 0;
+        for (LightPattern root : roots) overall += nodes.get(root).totalNanos;
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "%-48s %8s %10s %10s %7s %9s%n", "Pattern", "Calls", "Total ms", "Self ms", "Self %", "Mpx/s"));
+        IdentityHashMap<LightPattern, Boolean> printed = new IdentityHashMap<>();
+        for (LightPattern root : roots) append(builder, root, 0, overall, printed);
+        return builder.toString();
+    }
+    private void append(StringBuilder builder, LightPattern pattern, int depth, long overall, IdentityHashMap<LightPattern, Boolean> printed)
+    {
+        Node node = nodes.get(pattern);
+
+        String name = pattern.getClass().getSimpleName();
+        if (name.isEmpty()) name = pattern.getClass().getName();
+        boolean repeat = printed.put(pattern, Boolean.TRUE) != null;
+        if (repeat) name += " (shared, see above)";
+        else if (node == null) name += drewBelow(pattern) ? " (fused)" : " (not drawn)";
+
+        if (node == null)
+        {
+            builder.append(String.format(Locale.ROOT, "%-48s %8s %10s %10s %7s %9s%n", "  ".repeat(depth) + name, "-", "-", "-", "-", "-"));
+        }
+        else
+        {
+            builder.append(String.format(Locale.ROOT, "%-48s %8d %10.3f %10.3f %7.1f %9.1f%n",
+                "  ".repeat(depth) + name,
+                node.calls,
+                node.totalNanos / 1e6,
+                node.selfNanos / 1e6,
+                overall == 0 ? 0 : 100.0 * node.selfNanos / overall,
+                node.totalNanos == 0 ? 0 : node.pixels * 1e3 / node.totalNanos));
+        }
+
+        if (!repeat) pattern.forEachChild(child -> append(builder, child, depth + 1, overall, printed));
+    }
+    /** Returns true if anything under the given pattern was drawn. */
+    private boolean drewBelow(LightPattern pattern)
+    {
+        boolean[] drew = new boolean[1];
+        pattern.forEachChild(child -> drew[0] |= nodes.containsKey(child) || drewBelow(child));
+        return drew[0];
+    }
+
+    /** The patterns being drawn on one thread, and how long their children took so far. */
+    private static class Stack
+    {
+        private long[] childNanos = new long[8];
+        private int depth;
+
+        /** Starts timing a pattern, and returns how deep it is. */
+        int push()
+        {
+            if (depth == childNanos.length) childNanos = Arrays.copyOf(childNanos, depth * 2);
+            childNanos[depth] = 0;
+            return depth++;
+        }
+        /** Finishes timing a pattern that took the given time, and returns how long its children took. */
+        long pop(long nanos)
+        {
+            long children = childNanos[--depth];
+            if (depth > 0) childNanos[depth - 1] += nanos;
+            return children;
+        }
+    }
+
+    /** What has been timed for a single pattern. */
+    private static class Node
+    {
+        boolean root;
+        long calls, totalNanos, selfNanos, pixels;
+    }
+}
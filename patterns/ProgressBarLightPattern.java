@@ -5,6 +5,7 @@ import java.util.function.DoubleSupplier;
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
 import betterlights.Gradient;
 
 /** Takes a double supplier and maps it to a progress bar-styled pattern. */
@@ -131,7 +132,7 @@ public class ProgressBarLightPattern extends LightPattern
             {
                 // Active part of the bar.
                 double location = mapOnGradient(i, length, pixelsTrue);
-                writer.setLED(i, onGradient.getColor(location, gamma));
+                ColorHelper.write(writer, i, onGradient.getPacked(location, gamma));
             }
             else if (smooth && i < pixelsTrue)
             {
@@ -139,15 +140,15 @@ public class ProgressBarLightPattern extends LightPattern
                 double part = pixelsTrue % 1;
                 double locationOn = mapOnGradient(i, length, pixelsTrue),
                        locationOff = mapOffGradient(i, length, pixelsTrue);
-                Color onColor = onGradient.getColor(locationOn, gamma),
-                      offColor = offGradient.getColor(locationOff, gamma);
-                writer.setLED(i, colorLerp(offColor, onColor, part));
+                int onColor = onGradient.getPacked(locationOn, gamma),
+                    offColor = offGradient.getPacked(locationOff, gamma);
+                ColorHelper.write(writer, i, colorLerp(offColor, onColor, part));
             }
             else
             {
                 // Inactive part of the bar.
                 double location = mapOffGradient(i, length, pixelsTrue);
-                writer.setLED(i, offGradient.getColor(location, gamma));
+                ColorHelper.write(writer, i, offGradient.getPacked(location, gamma));
             }
 
         }
@@ -5,20 +5,33 @@ import java.util.Random;
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
 import betterlights.Gradient;
+import betterlights.LightBuffer;
 
-/** A light pattern that fills the segment with randomized colors. */
+/**
+ * A light pattern that fills the segment with randomized colors. Each color is a hash of the seed,
+ * the current refresh period and the pixel's index, so any pixel can be worked out on its own.
+ */
 public class RandomLightPattern extends LightPattern
 {
+    private static final long kNoEpoch = Long.MIN_VALUE;
+
     private Gradient gradient;
     private boolean allShades = true;
+    private long seed;
 
     private int refreshEvery = 1;
-    private Random randCur = new Random(),
-                   randNext = new Random();
-
     private boolean interpolateSmooth = false;
 
+    // The colors for the current refresh period and the one after it, so they aren't worked out every tick.
+    private LightBuffer current = new LightBuffer(), next = new LightBuffer();
+    private long currentEpoch = kNoEpoch, nextEpoch = kNoEpoch;
+    private int cachedRevision;
+
+    // Only used by get().
+    private final Random rand = new Random();
+
     public RandomLightPattern() {}
 
     @Override public RandomLightPattern withGamma(double gamma) { super.withGamma(gamma); return this; }
@@ -29,6 +42,7 @@ public class RandomLightPattern extends LightPattern
         gradient = new Gradient()
             .withColorEntry(0, Color.kBlack)
             .withColorEntry(1, color);
+        markChanged();
         return this;
     }
     /** Make this pattern set its LEDs to a random gradient between these two colors. */
@@ -38,6 +52,7 @@ public class RandomLightPattern extends LightPattern
         gradient = new Gradient()
             .withColorEntry(0, colorA)
             .withColorEntry(1, colorB);
+        markChanged();
         return this;
     }
     /** Make this pattern set its LEDs to a random value in this gradient. */
@@ -45,12 +60,21 @@ public class RandomLightPattern extends LightPattern
     {
         allShades = false;
         this.gradient = gradient;
+        markChanged();
         return this;
     }
     /** Make the pattern re-randomize the LEDs every given amount of ticks. */
     public RandomLightPattern withRefreshEvery(int ticks)
     {
         refreshEvery = ticks;
+        markChanged();
+        return this;
+    }
+    /** Sets the seed for the random colors. Patterns with the same seed and settings show the same colors. */
+    public RandomLightPattern withSeed(long seed)
+    {
+        this.seed = seed;
+        markChanged();
         return this;
     }
     /** Make the pattern snap from one randomization to the next immediately. Has no effect unless withRefreshEvery() was called with a number greater than one tick. */
@@ -67,41 +91,101 @@ public class RandomLightPattern extends LightPattern
     }
 
     @Override
-    public void applyTo(LEDReader reader, LEDWriter writer)
+    public int getRevision()
     {
-        int seed;
-        if (refreshEvery <= 1) seed = getTick();
-        else seed = getTick() / refreshEvery;
-        randCur.setSeed(seed);
-        randNext.setSeed(seed + 1);
+        // The gradient can be changed after it's set, so include its revision too.
+        if (gradient == null) return super.getRevision();
+        else return super.getRevision() + gradient.getRevision();
+    }
 
+    @Override
+    public void applyTo(LEDReader reader, LEDWriter writer)
+    {
         int length = reader.getLength();
-        for (int i = 0; i < length; i++)
+        boolean fade = refreshEvery > 1 && interpolateSmooth;
+        long epoch;
+        if (refreshEvery <= 1) epoch = getTick();
+        else epoch = Math.floorDiv(getTick(), refreshEvery);
+        updateCache(length, epoch, fade);
+
+        if (!fade)
         {
-            if (refreshEvery <= 1 || !interpolateSmooth) writer.setLED(i, get());
-            else
-            {
-                Color curColor = get(randCur),
-                      nextColor = get(randNext);
-                int leftover = getTick() % refreshEvery;
-                double time = (double)leftover / refreshEvery;
-                writer.setLED(i, colorLerp(curColor, nextColor, time));
-            }
+            for (int i = 0; i < length; i++) ColorHelper.write(writer, i, current.get(i));
+        }
+        else
+        {
+            int leftover = Math.floorMod(getTick(), refreshEvery);
+            double time = (double)leftover / refreshEvery;
+            for (int i = 0; i < length; i++) ColorHelper.write(writer, i, colorLerp(current.get(i), next.get(i), time));
         }
     }
 
+    /** Returns a random color from this pattern. */
     public Color get()
     {
-        return get(randCur);
+        return ColorHelper.unpack(get(rand.nextLong(), 0));
     }
-    private Color get(Random rand)
+    /** Returns the packed color of a pixel during the given refresh period. */
+    private int get(long epoch, int index)
     {
         double invGamma = gamma;
-        if (allShades) return new Color(
-            Math.pow(rand.nextDouble(), invGamma),
-            Math.pow(rand.nextDouble(), invGamma),
-            Math.pow(rand.nextDouble(), invGamma)
+        if (allShades) return ColorHelper.pack(
+            ColorHelper.toByte(Math.pow(random(epoch, index, 0), invGamma)),
+            ColorHelper.toByte(Math.pow(random(epoch, index, 1), invGamma)),
+            ColorHelper.toByte(Math.pow(random(epoch, index, 2), invGamma))
         );
-        else return gradient.getColor(rand.nextDouble(), gamma);
+        else return gradient.getPacked(random(epoch, index, 0), gamma);
+    }
+
+    private void updateCache(int length, long epoch, boolean fade)
+    {
+        // Anything we had is useless if the settings or the length changed.
+        int revision = getRevision();
+        if (revision != cachedRevision || length != current.getLength())
+        {
+            current.resize(length);
+            next.resize(length);
+            currentEpoch = kNoEpoch;
+            nextEpoch = kNoEpoch;
+            cachedRevision = revision;
+        }
+
+        if (currentEpoch != epoch)
+        {
+            if (nextEpoch == epoch)
+            {
+                // We've moved on to the next period, which we already have.
+                LightBuffer swap = current;
+                current = next;
+                next = swap;
+                nextEpoch = kNoEpoch;
+            }
+            else fill(current, epoch);
+            currentEpoch = epoch;
+        }
+        if (fade && nextEpoch != epoch + 1)
+        {
+            fill(next, epoch + 1);
+            nextEpoch = epoch + 1;
+        }
+    }
+    private void fill(LightBuffer buffer, long epoch)
+    {
+        for (int i = 0; i < buffer.getLength(); i++) buffer.set(i, get(epoch, i));
+    }
+
+    /** Returns a random number between 0 and 1 for a given refresh period, pixel and channel. */
+    private double random(long epoch, int index, int channel)
+    {
+        // Each key is hashed with SplitMix64's mixing function.
+        long hash = mix(seed + epoch * 0x9E3779B97F4A7C15L);
+        hash = mix(hash + (index * 3L + channel) * 0xBF58476D1CE4E5B9L);
+        return (hash >>> 11) * 0x1.0p-53;
+    }
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 }
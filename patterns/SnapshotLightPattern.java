@@ -0,0 +1,33 @@
+package betterlights.patterns;
+
+import edu.wpi.first.wpilibj.LEDReader;
+import edu.wpi.first.wpilibj.LEDWriter;
+import betterlights.ColorHelper;
+import betterlights.LightBuffer;
+
+/**
+ * A pattern that shows a single frame captured from somewhere else. The scheduler uses these to
+ * start a transition from whatever was on screen when another transition got interrupted, so
+ * transitions never end up nested inside each other.
+ */
+public class SnapshotLightPattern extends LightPattern
+{
+    private final LightBuffer frame = new LightBuffer();
+
+    /** Creates a pattern that shows a copy of the given frame. */
+    public SnapshotLightPattern(LightBuffer frame)
+    {
+        this.frame.copyFrom(frame);
+    }
+
+    @Override
+    public boolean isTimeInvariant() { return true; }
+
+    @Override
+    public void applyTo(LEDReader reader, LEDWriter writer)
+    {
+        // Leave anything past the end of the frame alone, in case it's drawn somewhere longer.
+        int length = Math.min(reader.getLength(), frame.getLength());
+        for (int i = 0; i < length; i++) ColorHelper.write(writer, i, frame.get(i));
+    }
+}
@@ -10,12 +10,29 @@ public class SolidLightPattern extends LightPattern
     /** The color for the lights. */
     public Color color;
 
+    // The color we last handed out a revision for. Colors are immutable, so a new object means a new color.
+    private Color revisedColor;
+
     /** Creates a light pattern that displays a given solid color. */
     public SolidLightPattern(Color color)
     {
         this.color = color;
     }
 
+    @Override
+    public boolean isTimeInvariant() { return true; }
+    @Override
+    public int getRevision()
+    {
+        // The color is a public field, so we can't know when it's set. Check instead.
+        if (color != revisedColor)
+        {
+            revisedColor = color;
+            markChanged();
+        }
+        return super.getRevision();
+    }
+
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
@@ -1,8 +1,12 @@
 package betterlights.patterns.wrappers;
 
+import java.util.function.Consumer;
+
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
+import betterlights.LightBuffer;
 import betterlights.patterns.LightPattern;
 
 public class BinaryLightWrapper extends LightWrapper
@@ -10,6 +14,9 @@ public class BinaryLightWrapper extends LightWrapper
     protected final LightPattern patternA, patternB;
     protected final Operator operator;
 
+    private final LightBuffer bufferA = new LightBuffer(), bufferB = new LightBuffer();
+    private PixelPipeline pipeline;
+
     protected BinaryLightWrapper(LightPattern patternA, LightPattern patternB)
     {
         super(patternA);
@@ -44,23 +51,74 @@ public class BinaryLightWrapper extends LightWrapper
         patternB.setCurrentTick(newTick);
     }
 
+    @Override
+    public boolean isTimeInvariant()
+    {
+        return followsUnderlying() && patternA.isTimeInvariant() && patternB.isTimeInvariant();
+    }
+    @Override
+    public int getRevision()
+    {
+        return super.getRevision() + patternB.getRevision();
+    }
+    @Override
+    public int getPeriod(int length)
+    {
+        if (!followsUnderlying()) return 0;
+        else return combinePeriods(patternA.getPeriod(length), patternB.getPeriod(length));
+    }
+    @Override
+    public boolean readsInput()
+    {
+        return patternA.readsInput() || patternB.readsInput();
+    }
+    @Override
+    public void forEachChild(Consumer<LightPattern> action)
+    {
+        action.accept(patternA);
+        action.accept(patternB);
+    }
+
     protected Color mix(Color inputA, Color inputB) { return inputA; }
+    /**
+     * Mixes two packed colors. By default this goes through the operator, which allocates
+     * Color objects. Override this instead of the Color version to skip that.
+     */
+    protected int mix(int inputA, int inputB)
+    {
+        return ColorHelper.pack(operator.mix(ColorHelper.unpack(inputA), ColorHelper.unpack(inputB)));
+    }
+    /**
+     * Returns true if each channel that mix() outputs only depends on the same channel of its inputs,
+     * and the result only changes along with this pattern's revision. Chains of channelwise
+     * wrappers are baked into lookup tables. The built-in wrappers only say so for their own class,
+     * since a subclass's mix() might change over time.
+     */
+    protected boolean isChannelwise() { return false; }
 
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
+        // If one side is a solid color, this is really a per-pixel operator. Fuse it with any others underneath.
+        if (pipeline == null || pipeline.revision != getRevision()) pipeline = PixelPipeline.build(this);
+        if (!pipeline.isEmpty())
+        {
+            pipeline.applyTo(reader, writer);
+            return;
+        }
+
         // Compute the two patterns.
         int length = reader.getLength();
-        Color[] bufA = new Color[length],
-                bufB = new Color[length];
-        patternA.applyTo(reader, (i, r, g, b) -> bufA[i] = new Color(r, g, b));
-        patternB.applyTo(reader, (i, r, g, b) -> bufB[i] = new Color(r, g, b));
+        bufferA.resize(length);
+        bufferB.resize(length);
+        patternA.render(reader, bufferA);
+        patternB.render(reader, bufferB);
 
         // Then lerp between them.
         for (int i = 0; i < length; i++)
         {
-            Color mixed = operator.mix(bufA[i], bufB[i]);
-            writer.setLED(i, mixed);
+            int mixed = mix(bufferA.get(i), bufferB.get(i));
+            ColorHelper.write(writer, i, mixed);
         }
     }
 
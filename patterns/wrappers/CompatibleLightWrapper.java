@@ -19,6 +19,9 @@ public class CompatibleLightWrapper extends LightPattern
         this.pattern = pattern;
     }
 
+    // A basic pattern is free to read the LEDs it's drawn over.
+    @Override public boolean readsInput() { return true; }
+
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
@@ -1,5 +1,7 @@
 package betterlights.patterns.wrappers;
 
+import java.util.function.Consumer;
+
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import betterlights.patterns.LightPattern;
@@ -37,6 +39,34 @@ public class LightWrapper extends LightPattern
     @Override public void onEnabled() { underlying.onEnabled(); }
     @Override public void onDisabled() { underlying.onDisabled(); }
     @Override public boolean isComplete() { return underlying.isComplete(); }
+    @Override public boolean isTimeInvariant() { return followsUnderlying() && underlying.isTimeInvariant(); }
+    @Override public int getRevision() { return super.getRevision() + underlying.getRevision(); }
+    @Override public int getPeriod(int length) { return followsUnderlying() ? underlying.getPeriod(length) : 0; }
+    @Override public boolean readsInput() { return underlying.readsInput(); }
+    @Override public void forEachChild(Consumer<LightPattern> action) { action.accept(underlying); }
+
+    @Override public void applyTo(LEDReader reader, LEDWriter writer) { underlying.render(reader, writer); }
+
+    /**
+     * Returns true if this wrapper only changes the patterns under it in a way that doesn't depend
+     * on the tick, so it's time-invariant or repeats whenever they are. Off by default, since a
+     * wrapper is free to animate by itself. The built-in wrappers turn it on for their own class.
+     */
+    protected boolean followsUnderlying() { return false; }
 
-    @Override public void applyTo(LEDReader reader, LEDWriter writer) { underlying.applyTo(reader, writer); }
+    /**
+     * Returns true if the pattern's class overrides applyTo() from the given base class. Wrappers
+     * that fuse chains of themselves use this to leave alone any that do their own thing.
+     */
+    static boolean overridesApplyTo(LightPattern pattern, Class<?> base)
+    {
+        try
+        {
+            return pattern.getClass().getMethod("applyTo", LEDReader.class, LEDWriter.class).getDeclaringClass() != base;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return true;
+        }
+    }
 }
@@ -1,13 +1,29 @@
 package betterlights.patterns.wrappers;
 
+import java.util.ArrayList;
+
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import betterlights.patterns.LightPattern;
 
-/** A wrapper class that maps an index in the light strip to a new index. */
+/**
+ * A wrapper class that maps an index in the light strip to a new index. A chain of mapped
+ * wrappers is compiled into a single table of indices, which is kept until the length of
+ * the segment changes.
+ */
 public class MappedLightWrapper extends LightWrapper
 {
     protected final IndexMapper mapper;
+    // The compiled map already assumes the mapping never changes, so the same goes for timing.
+    private final boolean followsUnderlying = !overridesApplyTo(this, MappedLightWrapper.class);
+
+    // The compiled chain. Maps each index the source pattern sees to an index on the strip.
+    private LightPattern source;
+    private int[] map;
+    private int mapRevision;
+
+    private final MappedReader mappedReader = new MappedReader();
+    private final MappedWriter mappedWriter = new MappedWriter();
 
     /** Uses the protected map() method as the mapper. */
     protected MappedLightWrapper(LightPattern pattern)
@@ -24,19 +40,70 @@ public class MappedLightWrapper extends LightWrapper
 
     protected int map(int length, int index) { return index; }
 
+    @Override
+    protected boolean followsUnderlying() { return followsUnderlying; }
+
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
-        // Define a new reader and writer that maps to the new index.
         int length = reader.getLength();
-        LEDReader mappedReader = new LEDReader()
+        if (map == null || map.length != length || mapRevision != getRevision()) compile(length);
+
+        // Use a reader and writer that go through the map. They're reused to avoid allocating every tick.
+        mappedReader.input = reader;
+        mappedReader.map = map;
+        mappedWriter.output = writer;
+        mappedWriter.map = map;
+        source.render(mappedReader, mappedWriter);
+        mappedReader.input = null;
+        mappedWriter.output = null;
+    }
+
+    private void compile(int length)
+    {
+        // Collect the chain of mapped wrappers from the top down.
+        ArrayList<MappedLightWrapper> chain = new ArrayList<>();
+        chain.add(this);
+        LightPattern node = underlying;
+        while (node instanceof MappedLightWrapper mapped && !overridesApplyTo(mapped, MappedLightWrapper.class))
+        {
+            chain.add(mapped);
+            node = mapped.underlying;
+        }
+
+        // The bottom of the chain maps first, and the top maps last.
+        int[] map = new int[length];
+        for (int i = 0; i < length; i++)
+        {
+            int index = i;
+            for (int j = chain.size() - 1; j >= 0; j--) index = chain.get(j).mapper.apply(length, index);
+            map[i] = index;
+        }
+
+        source = node;
+        this.map = map;
+        mapRevision = getRevision();
+    }
+
+    private static class MappedReader implements LEDReader
+    {
+        private LEDReader input;
+        private int[] map;
+
+        @Override public int getLength() { return map.length; }
+        @Override public int getRed(int index) { return input.getRed(map[index]); }
+        @Override public int getGreen(int index) { return input.getGreen(map[index]); }
+        @Override public int getBlue(int index) { return input.getBlue(map[index]); }
+    }
+    private static class MappedWriter implements LEDWriter
+    {
+        private LEDWriter output;
+        private int[] map;
+
+        @Override
+        public void setRGB(int index, int r, int g, int b)
         {
-            @Override public int getLength() { return length; }
-            @Override public int getRed(int index) { return reader.getRed(mapper.apply(length, index)); }
-            @Override public int getGreen(int index) { return reader.getGreen(mapper.apply(length, index)); }
-            @Override public int getBlue(int index) { return reader.getBlue(mapper.apply(length, index)); }
-        };
-        LEDWriter mappedWriter = (i, r, g, b) -> writer.setRGB(mapper.apply(length, i), r, g, b);
-        underlying.applyTo(mappedReader, mappedWriter);
+            output.setRGB(map[index], r, g, b);
+        }
     }
 }
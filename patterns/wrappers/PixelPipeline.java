@@ -0,0 +1,153 @@
+package betterlights.patterns.wrappers;
+
+import java.util.ArrayList;
+import java.util.function.IntUnaryOperator;
+
+import edu.wpi.first.wpilibj.LEDReader;
+import edu.wpi.first.wpilibj.LEDWriter;
+import betterlights.ColorHelper;
+import betterlights.LightBuffer;
+import betterlights.patterns.LightPattern;
+import betterlights.patterns.SolidLightPattern;
+
+/**
+ * A chain of wrappers that only change each pixel's color, fused into a single pass. The
+ * pattern at the bottom of the chain is drawn once, then every operator is applied to each
+ * pixel in turn. Runs of channelwise operators are baked into a single set of lookup tables.
+ *
+ * Unary wrappers can always be fused. Binary wrappers can be fused when one side is a solid
+ * color, since mixing with a constant only depends on the other side. Wrappers that override
+ * applyTo() are left alone, since they might do more than mix colors.
+ */
+class PixelPipeline
+{
+    /** The revision of the top of the chain when this pipeline was built. */
+    final int revision;
+
+    private final LightPattern source;
+    private final IntUnaryOperator[] stages;
+    private final LightBuffer buffer = new LightBuffer();
+
+    private PixelPipeline(int revision, LightPattern source, IntUnaryOperator[] stages)
+    {
+        this.revision = revision;
+        this.source = source;
+        this.stages = stages;
+    }
+
+    /** Returns true if there was nothing to fuse. */
+    boolean isEmpty() { return stages.length == 0; }
+
+    void applyTo(LEDReader reader, LEDWriter writer)
+    {
+        int length = reader.getLength();
+        buffer.resize(length);
+        source.render(reader, buffer);
+
+        for (int i = 0; i < length; i++)
+        {
+            int color = buffer.get(i);
+            for (int j = 0; j < stages.length; j++) color = stages[j].applyAsInt(color);
+            ColorHelper.write(writer, i, color);
+        }
+    }
+
+    /** Fuses as much of the chain under the given wrapper as possible. */
+    static PixelPipeline build(LightPattern top)
+    {
+        int revision = top.getRevision();
+
+        // Walk down the chain, collecting operators from the top down.
+        ArrayList<IntUnaryOperator> operators = new ArrayList<>();
+        ArrayList<Boolean> channelwise = new ArrayList<>();
+        LightPattern node = top;
+        while (true)
+        {
+            if (node instanceof UnaryLightWrapper unary && !LightWrapper.overridesApplyTo(unary, UnaryLightWrapper.class))
+            {
+                operators.add(unary::mix);
+                channelwise.add(unary.isChannelwise());
+                node = unary.underlying;
+            }
+            else if (node instanceof BinaryLightWrapper binary && !LightWrapper.overridesApplyTo(binary, BinaryLightWrapper.class))
+            {
+                if (isSolid(binary.patternB))
+                {
+                    int constant = ColorHelper.pack(((SolidLightPattern)binary.patternB).color);
+                    operators.add(color -> binary.mix(color, constant));
+                    node = binary.patternA;
+                }
+                else if (isSolid(binary.patternA))
+                {
+                    int constant = ColorHelper.pack(((SolidLightPattern)binary.patternA).color);
+                    operators.add(color -> binary.mix(constant, color));
+                    node = binary.patternB;
+                }
+                else break;
+                channelwise.add(binary.isChannelwise());
+            }
+            else break;
+        }
+
+        // Then build the stages from the bottom up, merging channelwise runs into tables.
+        ArrayList<IntUnaryOperator> stages = new ArrayList<>();
+        ChannelTable table = null;
+        for (int i = operators.size() - 1; i >= 0; i--)
+        {
+            if (channelwise.get(i))
+            {
+                if (table == null)
+                {
+                    table = new ChannelTable();
+                    stages.add(table);
+                }
+                table.then(operators.get(i));
+            }
+            else
+            {
+                table = null;
+                stages.add(operators.get(i));
+            }
+        }
+        return new PixelPipeline(revision, node, stages.toArray(new IntUnaryOperator[0]));
+    }
+
+    private static boolean isSolid(LightPattern pattern)
+    {
+        return pattern instanceof SolidLightPattern && !LightWrapper.overridesApplyTo(pattern, SolidLightPattern.class);
+    }
+
+    /** A lookup table for each channel. Each channel of the output only depends on the same channel of the input. */
+    private static class ChannelTable implements IntUnaryOperator
+    {
+        private final int[] red = new int[256], green = new int[256], blue = new int[256];
+
+        ChannelTable()
+        {
+            for (int v = 0; v < 256; v++)
+            {
+                red[v] = v;
+                green[v] = v;
+                blue[v] = v;
+            }
+        }
+
+        /** Applies a channelwise operator after everything already in the table. */
+        void then(IntUnaryOperator operator)
+        {
+            for (int v = 0; v < 256; v++)
+            {
+                int color = operator.applyAsInt(ColorHelper.pack(red[v], green[v], blue[v]));
+                red[v] = ColorHelper.red(color);
+                green[v] = ColorHelper.green(color);
+                blue[v] = ColorHelper.blue(color);
+            }
+        }
+
+        @Override
+        public int applyAsInt(int color)
+        {
+            return ColorHelper.pack(red[ColorHelper.red(color)], green[ColorHelper.green(color)], blue[ColorHelper.blue(color)]);
+        }
+    }
+}
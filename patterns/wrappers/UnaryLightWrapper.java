@@ -3,12 +3,16 @@ package betterlights.patterns.wrappers;
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
 import betterlights.patterns.LightPattern;
 
 public class UnaryLightWrapper extends LightWrapper
 {
     protected final Operator operator;
 
+    private final MixWriter mixWriter = new MixWriter();
+    private PixelPipeline pipeline;
+
     protected UnaryLightWrapper(LightPattern underlying)
     {
         super(underlying);
@@ -21,16 +25,48 @@ public class UnaryLightWrapper extends LightWrapper
     }
 
     protected Color mix(Color input) { return input; }
+    /**
+     * Mixes a packed color. By default this goes through the operator, which allocates
+     * Color objects. Override this instead of the Color version to skip that.
+     */
+    protected int mix(int input)
+    {
+        return ColorHelper.pack(operator.mix(ColorHelper.unpack(input)));
+    }
+    /**
+     * Returns true if each channel that mix() outputs only depends on the same channel of its input,
+     * and the result only changes along with this pattern's revision. Chains of channelwise
+     * wrappers are baked into lookup tables. The built-in wrappers only say so for their own class,
+     * since a subclass's mix() might change over time.
+     */
+    protected boolean isChannelwise() { return false; }
 
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
-        // Define a writer than applies the mix.
-        underlying.applyTo(reader, (i, r, g, b) ->
+        // Fuse this wrapper with any others underneath it, so the whole chain is one pass.
+        if (pipeline == null || pipeline.revision != getRevision()) pipeline = PixelPipeline.build(this);
+        if (!pipeline.isEmpty())
+        {
+            pipeline.applyTo(reader, writer);
+            return;
+        }
+
+        // Use a writer that applies the mix. It's reused to avoid allocating every tick.
+        mixWriter.output = writer;
+        underlying.render(reader, mixWriter);
+        mixWriter.output = null;
+    }
+
+    private class MixWriter implements LEDWriter
+    {
+        private LEDWriter output;
+
+        @Override
+        public void setRGB(int index, int r, int g, int b)
         {
-            Color raw = new Color(r, g, b);
-            writer.setLED(i, operator.mix(raw));
-        });
+            ColorHelper.write(output, index, mix(ColorHelper.pack(r, g, b)));
+        }
     }
 
     public interface Operator
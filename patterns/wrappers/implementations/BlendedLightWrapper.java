@@ -1,6 +1,5 @@
 package betterlights.patterns.wrappers.implementations;
 
-import edu.wpi.first.wpilibj.util.Color;
 import betterlights.patterns.LightPattern;
 import betterlights.patterns.wrappers.BinaryLightWrapper;
 
@@ -16,7 +15,12 @@ public class BlendedLightWrapper extends BinaryLightWrapper
     }
 
     @Override
-    protected Color mix(Color inputA, Color inputB)
+    protected boolean isChannelwise() { return getClass() == BlendedLightWrapper.class; }
+    @Override
+    protected boolean followsUnderlying() { return getClass() == BlendedLightWrapper.class; }
+
+    @Override
+    protected int mix(int inputA, int inputB)
     {
         return colorLerp(inputA, inputB, amount);
     }
@@ -4,7 +4,8 @@ import java.util.function.BooleanSupplier;
 
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
-import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
+import betterlights.LightBuffer;
 import betterlights.patterns.LightPattern;
 import betterlights.patterns.wrappers.LightWrapper;
 
@@ -19,6 +20,8 @@ public class BlinkedLightWrapper extends LightWrapper
     
     protected double showLerp;
 
+    private final LightBuffer buffer = new LightBuffer();
+
     public BlinkedLightWrapper(LightPattern pattern, BooleanSupplier condition)
     {
         super(pattern);
@@ -63,6 +66,7 @@ public class BlinkedLightWrapper extends LightWrapper
     {
         if (ticksToShow == 0) easeInPerTick = 1;
         else easeInPerTick = 1.0 / (ticksToShow + 1);
+        markChanged();
         return this;
     }
     /** Gives a time for the pattern to fade out when it decides to hide. */
@@ -70,6 +74,7 @@ public class BlinkedLightWrapper extends LightWrapper
     {
         if (ticksToHide == 0) easeOutPerTick = 1;
         else easeOutPerTick = 1.0 / (ticksToHide + 1);
+        markChanged();
         return this;
     }
 
@@ -77,15 +82,27 @@ public class BlinkedLightWrapper extends LightWrapper
     public BlinkedLightWrapper startOn()
     {
         startEnabled = true;
+        markChanged();
         return this;
     }
     /** The pattern will be disabled when it first starts. This is the default behavior. */
     public BlinkedLightWrapper startOff()
     {
         startEnabled = false;
+        markChanged();
         return this;
     }
 
+    // Blinking changes over time, even if the underlying pattern does not.
+    @Override public boolean isTimeInvariant() { return false; }
+    @Override
+    public int getPeriod(int length)
+    {
+        // Easing carries over from one tick to the next, and a condition can change whenever it likes.
+        if (condition != null || easeInPerTick != 1 || easeOutPerTick != 1) return 0;
+        else return combinePeriods(timeOn + timeOff, underlying.getPeriod(length));
+    }
+
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
@@ -112,20 +129,19 @@ public class BlinkedLightWrapper extends LightWrapper
         else if (showLerp >= 1)
         {
             showLerp = 1;
-            underlying.applyTo(reader, writer);
+            underlying.render(reader, writer);
         }
         else
         {
             // Interpolate!
             int length = reader.getLength();
-            Color[] buf = new Color[length];
-            LEDWriter bufWriter = (i, r, g, b) -> buf[i] = new Color(r, g, b);
-            underlying.applyTo(reader, bufWriter);
+            buffer.resize(length);
+            underlying.render(reader, buffer);
 
             for (int i = 0; i < length; i++)
             {
-                Color c = colorLerp(Color.kBlack, buf[i], showLerp);
-                writer.setLED(i, c);
+                int c = colorLerp(0, buffer.get(i), showLerp);
+                ColorHelper.write(writer, i, c);
             }
         }
     }
@@ -2,7 +2,8 @@ package betterlights.patterns.wrappers.implementations;
 
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
-import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
+import betterlights.LightBuffer;
 import betterlights.patterns.LightPattern;
 import betterlights.patterns.wrappers.LightWrapper;
 
@@ -12,6 +13,8 @@ public class BreathingLightWrapper extends LightWrapper
     protected final int period;
     protected boolean startEnabled;
 
+    private final LightBuffer buffer = new LightBuffer();
+
     public BreathingLightWrapper(LightPattern pattern, int period)
     {
         super(pattern);
@@ -23,15 +26,21 @@ public class BreathingLightWrapper extends LightWrapper
     public BreathingLightWrapper startOn()
     {
         startEnabled = true;
+        markChanged();
         return this;
     }
     /** The pattern will be disabled when it first starts. This is the default behavior. */
     public BreathingLightWrapper startOff()
     {
         startEnabled = false;
+        markChanged();
         return this;
     }
 
+    // Fades in and out over time.
+    @Override public boolean isTimeInvariant() { return false; }
+    @Override public int getPeriod(int length) { return combinePeriods(period, underlying.getPeriod(length)); }
+
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
@@ -44,14 +53,13 @@ public class BreathingLightWrapper extends LightWrapper
 
         // Interpolate!
         int length = reader.getLength();
-        Color[] buf = new Color[length];
-        LEDWriter bufWriter = (i, r, g, b) -> buf[i] = new Color(r, g, b);
-        underlying.applyTo(reader, bufWriter);
+        buffer.resize(length);
+        underlying.render(reader, buffer);
 
         for (int i = 0; i < length; i++)
         {
-            Color c = colorLerp(Color.kBlack, buf[i], intensity);
-            writer.setLED(i, c);
+            int c = colorLerp(0, buffer.get(i), intensity);
+            ColorHelper.write(writer, i, c);
         }
     }
 }
@@ -1,6 +1,5 @@
 package betterlights.patterns.wrappers.implementations;
 
-import edu.wpi.first.wpilibj.util.Color;
 import betterlights.ColorHelper;
 import betterlights.patterns.LightPattern;
 import betterlights.patterns.wrappers.UnaryLightWrapper;
@@ -25,12 +24,17 @@ public class BrightnessLightWrapper extends UnaryLightWrapper
     }
 
     @Override
-    protected Color mix(Color color)
+    protected boolean isChannelwise() { return getClass() == BrightnessLightWrapper.class; }
+    @Override
+    protected boolean followsUnderlying() { return getClass() == BrightnessLightWrapper.class; }
+
+    @Override
+    protected int mix(int color)
     {
         // Multiply the color by a given brightness value.
-        double newR = ColorHelper.clamp(color.red * Math.abs(factor), 0, 1),
-               newG = ColorHelper.clamp(color.green * Math.abs(factor), 0, 1),
-               newB = ColorHelper.clamp(color.blue * Math.abs(factor), 0, 1);
+        double newR = ColorHelper.clamp(ColorHelper.toUnit(ColorHelper.red(color)) * Math.abs(factor), 0, 1),
+               newG = ColorHelper.clamp(ColorHelper.toUnit(ColorHelper.green(color)) * Math.abs(factor), 0, 1),
+               newB = ColorHelper.clamp(ColorHelper.toUnit(ColorHelper.blue(color)) * Math.abs(factor), 0, 1);
         
         if (factor < 0)
         {
@@ -40,6 +44,6 @@ public class BrightnessLightWrapper extends UnaryLightWrapper
             newB = 1 - newB;
         }
         
-        return new Color(newR, newG, newB);
+        return ColorHelper.pack(ColorHelper.toByte(newR), ColorHelper.toByte(newG), ColorHelper.toByte(newB));
     }
 }
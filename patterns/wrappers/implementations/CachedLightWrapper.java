@@ -0,0 +1,288 @@
+package betterlights.patterns.wrappers.implementations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import edu.wpi.first.wpilibj.LEDReader;
+import edu.wpi.first.wpilibj.LEDWriter;
+import betterlights.ColorHelper;
+import betterlights.LightBuffer;
+import betterlights.patterns.LightPattern;
+import betterlights.patterns.wrappers.LightWrapper;
+
+/**
+ * A wrapper that draws one full period of a repeating pattern ahead of time, then plays it back
+ * from a table. Worth it for expensive patterns that loop, like long animated gradients.
+ *
+ * Patterns that don't repeat (see {@link LightPattern#getPeriod(int)}) are drawn live as usual.
+ * Tables are kept per segment length, and are drawn again whenever the pattern's revision
+ * changes. Every cached pattern shares one memory budget, and the tables that were used least
+ * recently are thrown out first when it runs out.
+ *
+ * When the pattern is enabled, the tables for every length it was drawn at before are drawn
+ * straight away if they're missing. A table that's missing while the pattern is showing (the
+ * first time, or after it was thrown out to make room) is filled in over the next
+ * {@value #kFillTicks} ticks instead, while the pattern is drawn live. Until it's done, each tick
+ * costs the live frame plus about 1/{@value #kFillTicks} of a period.
+ */
+public class CachedLightWrapper extends LightWrapper
+{
+    /** The default amount of memory all cached patterns may use together, in bytes. */
+    public static final long kDefaultMemoryLimit = 4 << 20;
+
+    // How many ticks a missing table is filled in over.
+    private static final int kFillTicks = 10;
+
+    private final LightBuffer buffer = new LightBuffer();
+    // Every length this has been drawn at, so their tables can be drawn again when it's enabled.
+    private int[] lengths = new int[0];
+    // Tables being filled in a few frames at a time.
+    private final ArrayList<Fill> fills = new ArrayList<>();
+
+    public CachedLightWrapper(LightPattern pattern)
+    {
+        super(pattern);
+    }
+
+    // Plays back exactly what the pattern underneath would draw.
+    @Override
+    protected boolean followsUnderlying() { return getClass() == CachedLightWrapper.class; }
+
+    /** Sets how much memory all cached patterns may use together, in bytes. */
+    public static void setMemoryLimit(long bytes) { kFrames.setLimit(bytes); }
+    /** Returns how much memory cached patterns are using right now, in bytes. */
+    public static long getMemoryUsage() { return kFrames.getUsage(); }
+    /** Throws out every cached table. */
+    public static void clearAll() { kFrames.clear(); }
+
+    @Override
+    public void onEnabled()
+    {
+        super.onEnabled();
+
+        // Draw whatever was thrown out while this was hidden now, rather than in the middle of showing it.
+        for (int length : lengths)
+        {
+            int period = underlying.getPeriod(length);
+            int revision = getRevision();
+            if (period <= 0 || !fits(length, period) || kFrames.get(this, length, revision) != null) continue;
+
+            int[] table = new int[period * length];
+            LightBuffer blank = new LightBuffer(length);
+            drawFrames(blank, table, length, 0, period);
+            kFrames.put(this, length, revision, table);
+            removeFill(length);
+        }
+    }
+
+    @Override
+    public void applyTo(LEDReader reader, LEDWriter writer)
+    {
+        int length = reader.getLength();
+        int period = underlying.getPeriod(length);
+        if (period <= 0 || !fits(length, period))
+        {
+            // Doesn't repeat, or is too big to ever fit, so there's nothing to cache.
+            underlying.render(reader, writer);
+            return;
+        }
+        if (Arrays.binarySearch(lengths, length) < 0)
+        {
+            lengths = Arrays.copyOf(lengths, lengths.length + 1);
+            lengths[lengths.length - 1] = length;
+            Arrays.sort(lengths);
+        }
+
+        int revision = getRevision();
+        int[] table = kFrames.get(this, length, revision);
+        if (table == null)
+        {
+            // Fill in a few more frames, and draw this one live until the table is done.
+            table = fillSome(reader, length, period, revision);
+            if (table == null)
+            {
+                underlying.render(reader, writer);
+                return;
+            }
+            kFrames.put(this, length, revision, table);
+        }
+
+        int offset = Math.floorMod(underlying.getTick(), period) * length;
+        for (int i = 0; i < length; i++) ColorHelper.write(writer, i, table[offset + i]);
+    }
+
+    private static boolean fits(int length, int period)
+    {
+        return (long)period * length * Integer.BYTES <= kFrames.getLimit();
+    }
+
+    /** Draws the next few frames of a missing table, and returns the table once every frame is drawn. */
+    private int[] fillSome(LEDReader reader, int length, int period, int revision)
+    {
+        Fill fill = null;
+        for (Fill f : fills)
+        {
+            if (f.length == length) fill = f;
+        }
+        if (fill == null || fill.period != period || fill.revision != revision)
+        {
+            removeFill(length);
+            fill = new Fill(length, period, revision);
+            fills.add(fill);
+        }
+
+        int frames = Math.min(period - fill.next, (period + kFillTicks - 1) / kFillTicks);
+        drawFrames(reader, fill.table, length, fill.next, fill.next + frames);
+        fill.next += frames;
+        if (fill.next < period) return null;
+
+        fills.remove(fill);
+        return fill.table;
+    }
+    private void removeFill(int length)
+    {
+        fills.removeIf(fill -> fill.length == length);
+    }
+
+    /** Draws the given frames of one period into a table. */
+    private void drawFrames(LEDReader reader, int[] table, int length, int from, int to)
+    {
+        // Work out which current tick lands the pattern on its first frame.
+        int tick = underlying.getTick();
+        underlying.setCurrentTick(0);
+        int base = -underlying.getTick();
+
+        buffer.resize(length);
+        for (int frame = from; frame < to; frame++)
+        {
+            underlying.setCurrentTick(base + frame);
+            underlying.render(reader, buffer);
+            for (int i = 0; i < length; i++) table[frame * length + i] = buffer.get(i);
+        }
+
+        underlying.setCurrentTick(base + tick);
+    }
+
+    /** A table that's partly drawn. */
+    private static class Fill
+    {
+        final int length, period, revision;
+        final int[] table;
+        int next;
+
+        Fill(int length, int period, int revision)
+        {
+            this.length = length;
+            this.period = period;
+            this.revision = revision;
+            table = new int[period * length];
+        }
+    }
+
+    // #region Shared table storage.
+    private static final FrameCache kFrames = new FrameCache(kDefaultMemoryLimit);
+
+    /** Every cached table, in order of when they were last used. */
+    private static class FrameCache
+    {
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long limit, usage;
+        // Reused for lookups, so playing back a frame doesn't allocate.
+        private final Key lookup = new Key(null, 0);
+
+        FrameCache(long limit)
+        {
+            this.limit = limit;
+        }
+
+        synchronized long getLimit() { return limit; }
+        synchronized long getUsage() { return usage; }
+        synchronized void setLimit(long bytes)
+        {
+            limit = Math.max(0, bytes);
+            evict();
+        }
+        synchronized void clear()
+        {
+            entries.clear();
+            usage = 0;
+        }
+
+        synchronized int[] get(CachedLightWrapper owner, int length, int revision)
+        {
+            lookup.owner = owner;
+            lookup.length = length;
+            try
+            {
+                Entry entry = entries.get(lookup);
+                if (entry == null) return null;
+                if (entry.revision == revision) return entry.table;
+
+                // The pattern changed since this was drawn.
+                entries.remove(lookup);
+                usage -= entry.bytes();
+                return null;
+            }
+            finally
+            {
+                lookup.owner = null;
+            }
+        }
+        synchronized void put(CachedLightWrapper owner, int length, int revision, int[] table)
+        {
+            Entry entry = new Entry(revision, table);
+            Entry replaced = entries.put(new Key(owner, length), entry);
+            if (replaced != null) usage -= replaced.bytes();
+            usage += entry.bytes();
+            evict();
+        }
+
+        private void evict()
+        {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (usage > limit && iterator.hasNext())
+            {
+                usage -= iterator.next().bytes();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Key
+    {
+        // Only changed on the lookup key, never on one that's in the map.
+        CachedLightWrapper owner;
+        int length;
+
+        Key(CachedLightWrapper owner, int length)
+        {
+            this.owner = owner;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof Key key && key.owner == owner && key.length == length;
+        }
+        @Override
+        public int hashCode() { return System.identityHashCode(owner) * 31 + length; }
+    }
+
+    private static class Entry
+    {
+        final int revision;
+        final int[] table;
+
+        Entry(int revision, int[] table)
+        {
+            this.revision = revision;
+            this.table = table;
+        }
+
+        long bytes() { return (long)table.length * Integer.BYTES; }
+    }
+    // #endregion
+}
@@ -1,6 +1,6 @@
 package betterlights.patterns.wrappers.implementations;
 
-import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
 import betterlights.patterns.LightPattern;
 import betterlights.patterns.wrappers.BinaryLightWrapper;
 
@@ -9,11 +9,16 @@ public class MaskedLightWrapper extends BinaryLightWrapper
     public MaskedLightWrapper(LightPattern a, LightPattern b) { super(a, b); }
 
     @Override
-    protected Color mix(Color inputA, Color inputB)
+    protected boolean isChannelwise() { return getClass() == MaskedLightWrapper.class; }
+    @Override
+    protected boolean followsUnderlying() { return getClass() == MaskedLightWrapper.class; }
+
+    @Override
+    protected int mix(int inputA, int inputB)
     {
-        double newR = inputA.red * inputB.red,
-               newG = inputA.green * inputB.green,
-               newB = inputA.blue * inputB.blue;
-        return new Color(newR, newG, newB);
+        double newR = ColorHelper.toUnit(ColorHelper.red(inputA)) * ColorHelper.toUnit(ColorHelper.red(inputB)),
+               newG = ColorHelper.toUnit(ColorHelper.green(inputA)) * ColorHelper.toUnit(ColorHelper.green(inputB)),
+               newB = ColorHelper.toUnit(ColorHelper.blue(inputA)) * ColorHelper.toUnit(ColorHelper.blue(inputB));
+        return ColorHelper.pack(ColorHelper.toByte(newR), ColorHelper.toByte(newG), ColorHelper.toByte(newB));
     }
 }
@@ -1,24 +1,48 @@
 package betterlights.patterns.wrappers.implementations;
 
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
+import betterlights.GammaTable;
 import betterlights.patterns.LightPattern;
 import betterlights.patterns.wrappers.BinaryLightWrapper;
 
 /** A light wrapper that overlays one pattern on another. */
 public class OverlayLightWrapper extends BinaryLightWrapper
 {
+    // Subclasses written before packed colors may override the Color version instead. Use theirs if so.
+    private final boolean usesColorMix;
+
     public OverlayLightWrapper(LightPattern patternA, LightPattern patternB)
     {
         super(patternA, patternB);
+        usesColorMix = overridesBelow(getClass(), "mix", Color.class, Color.class) ||
+                       overridesBelow(getClass(), "lerpGamma", double.class, double.class, double.class);
     }
-    
+
     @Override
-    protected Color mix(Color inputA, Color inputB)
+    protected boolean isChannelwise() { return getClass() == OverlayLightWrapper.class && !usesColorMix; }
+    @Override
+    protected boolean followsUnderlying() { return getClass() == OverlayLightWrapper.class; }
+
+    @Override
+    protected int mix(int inputA, int inputB)
     {
+        if (usesColorMix) return ColorHelper.pack(mix(ColorHelper.unpack(inputA), ColorHelper.unpack(inputB)));
+
         // Use the r, g, and b values to interpolate the final color.
         // We need to basically re-implement the lerp function here since
         // it's per-channel.
 
+        GammaTable table = getGammaTable();
+        return ColorHelper.pack(
+            table.lerpChannel(ColorHelper.red(inputA), 255, ColorHelper.toUnit(ColorHelper.red(inputB))),
+            table.lerpChannel(ColorHelper.green(inputA), 255, ColorHelper.toUnit(ColorHelper.green(inputB))),
+            table.lerpChannel(ColorHelper.blue(inputA), 255, ColorHelper.toUnit(ColorHelper.blue(inputB)))
+        );
+    }
+    @Override
+    protected Color mix(Color inputA, Color inputB)
+    {
         return new Color(
             lerpGamma(inputA.red, 1, inputB.red),
             lerpGamma(inputA.green, 1, inputB.green),
@@ -26,15 +50,36 @@ public class OverlayLightWrapper extends BinaryLightWrapper
         );
     }
 
+    /**
+     * Interpolates a single channel between 0 and 1 with this pattern's gamma.
+     * @deprecated Colors are mixed as packed channels with a {@link GammaTable} now. Override
+     * mix(int, int) instead. Overriding this still works, but skips the faster path.
+     */
+    @Deprecated
     protected double lerpGamma(double a, double b, double t)
     {
-        if (t <= 0) return a;
-        else if (t >= 1) return b;
-        
-        double invGamma = 1 / gamma;
-        double aGamma = Math.pow(a, gamma), bGamma = Math.pow(b, gamma);
-        double cGamma = aGamma + t * (bGamma - aGamma);
-
-        return Math.pow(cGamma, invGamma);
+        return getGammaTable().lerpChannel(toChannel(a), toChannel(b), t) / 255.0;
+    }
+    private static int toChannel(double value)
+    {
+        return (int)Math.round(Math.max(0, Math.min(1, value)) * 255);
+    }
+
+    /** Returns true if a class between the given one and this one declares the given method. */
+    private static boolean overridesBelow(Class<?> type, String name, Class<?>... parameters)
+    {
+        for (Class<?> c = type; c != OverlayLightWrapper.class; c = c.getSuperclass())
+        {
+            try
+            {
+                c.getDeclaredMethod(name, parameters);
+                return true;
+            }
+            catch (NoSuchMethodException e)
+            {
+                // Not this one. Keep looking.
+            }
+        }
+        return false;
     }
 }
@@ -2,17 +2,23 @@ package betterlights.patterns.wrappers.implementations;
 
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
-import edu.wpi.first.wpilibj.util.Color;
 import betterlights.ColorHelper;
+import betterlights.LightBuffer;
 import betterlights.patterns.LightPattern;
 import betterlights.patterns.wrappers.LightWrapper;
 
 /** An internal wrapper that scrolls the pattern at a given rate. */
 public class ScrollLightWrapper extends LightWrapper
 {
+    // The scroll offset is kept in fixed-point, with this many bits below the pixel.
+    private static final int kPhaseBits = 16;
+    private static final int kPhaseMask = (1 << kPhaseBits) - 1;
+
     private final double speed;
     private boolean sharp;
 
+    private final LightBuffer buffer = new LightBuffer();
+
     public ScrollLightWrapper(LightPattern pattern, double speed)
     {
         super(pattern);
@@ -24,25 +30,36 @@ public class ScrollLightWrapper extends LightWrapper
     /** Interpolate between pixels in the scroll animation. The default behavior. */
     public ScrollLightWrapper smooth() { sharp = false; return this; }
 
+    // Scrolls every tick, even if the underlying pattern never changes.
+    @Override public boolean isTimeInvariant() { return false; }
+    @Override public int getPeriod(int length) { return 0; }
+
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
         // First, apply the buffer before we do anything else.
         int length = reader.getLength();
-        Color[] buffer = new Color[length];
-        underlying.applyTo(reader, (i, r, g, b) -> buffer[i] = new Color(r, g, b));
+        if (length == 0) return;
+        buffer.resize(length);
+        underlying.render(reader, buffer);
 
-        // Then work on the offset.
+        // Then work out the offset once for the whole frame. The whole pixels give us where
+        // to start reading the buffer, and the rest is how far we are towards the next pixel.
+        long phase = (long)Math.floor(getTick() * -speed * (1 << kPhaseBits));
+        int start = (int)Math.floorMod(phase >> kPhaseBits, (long)length);
+        int fraction = (int)(phase & kPhaseMask);
+        double t = fraction / (double)(1 << kPhaseBits);
+
+        // Now read the buffer like a ring, starting from that offset.
+        int minIndex = start;
         for (int i = 0; i < length; i++)
         {
-            // Get the two indices we're currently interpolating between.
-            double offset = getTick() * -speed;
-            int minIndex = (int)ColorHelper.absMod(Math.floor(i + offset), length),
-                maxIndex = (int)ColorHelper.absMod(Math.ceil(i + offset), length);
-            double t = ColorHelper.absMod(offset, 1);
-
-            if (sharp || minIndex == maxIndex) writer.setLED(i, buffer[minIndex]); // Easy, they're the same!
-            else writer.setLED(i, colorLerp(buffer[minIndex], buffer[maxIndex], t)); // Whelp, let's interpolate.
+            int maxIndex = minIndex + 1 == length ? 0 : minIndex + 1;
+
+            if (sharp || fraction == 0) ColorHelper.write(writer, i, buffer.get(minIndex)); // Easy, they're the same!
+            else ColorHelper.write(writer, i, colorLerp(buffer.get(minIndex), buffer.get(maxIndex), t)); // Whelp, let's interpolate.
+
+            minIndex = maxIndex;
         }
     }
 }
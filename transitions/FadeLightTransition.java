@@ -2,6 +2,8 @@ package betterlights.transitions;
 
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
+import betterlights.LightBuffer;
 import betterlights.patterns.LightPattern;
 
 /** A pattern that transitions between two other internal light patterns, while continuing the animation of each. */
@@ -46,22 +48,23 @@ public class FadeLightTransition extends LightTransition
     }
 
     @Override
-    public void applyTransition(int length, Color[] startBuffer, Color[] endBuffer, LEDWriter writer)
+    public void applyTransition(int length, LightBuffer startBuffer, LightBuffer endBuffer, LEDWriter writer)
     {
         // Interpolate between the two buffers.
         double time = (double)getTick() / duration;
+        int fade = useFadeColor ? ColorHelper.pack(fadeColor) : 0;
 
         for (int i = 0; i < length; i++)
         {
-            Color outputColor;
+            int outputColor;
             if (useFadeColor)
             {
-                if (time <= 0.5) outputColor = colorLerp(startBuffer[i], fadeColor, 2 * time);
-                else outputColor = colorLerp(fadeColor, endBuffer[i], 2 * (time - 0.5));
+                if (time <= 0.5) outputColor = colorLerp(startBuffer.get(i), fade, 2 * time);
+                else outputColor = colorLerp(fade, endBuffer.get(i), 2 * (time - 0.5));
             }
-            else outputColor = colorLerp(startBuffer[i], endBuffer[i], time);
+            else outputColor = colorLerp(startBuffer.get(i), endBuffer.get(i), time);
 
-            writer.setLED(i, outputColor);
+            ColorHelper.write(writer, i, outputColor);
         }
     }
 
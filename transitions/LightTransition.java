@@ -1,8 +1,11 @@
 package betterlights.transitions;
 
+import java.util.function.Consumer;
+
 import edu.wpi.first.wpilibj.LEDReader;
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.LightBuffer;
 import betterlights.LightScheduler;
 import betterlights.patterns.LightPattern;
 import betterlights.patterns.SolidLightPattern;
@@ -12,6 +15,8 @@ public abstract class LightTransition extends LightPattern
     protected LightPattern startPattern, endPattern;
     protected int contTick;
 
+    private final LightBuffer bufferA = new LightBuffer(), bufferB = new LightBuffer();
+
     public LightTransition()
     {
         startPattern = new SolidLightPattern(Color.kBlack);
@@ -54,20 +59,30 @@ public abstract class LightTransition extends LightPattern
 
     public int getContinuationTick() { return contTick; }
 
+    @Override public boolean readsInput() { return startPattern.readsInput() || endPattern.readsInput(); }
+    @Override
+    public void forEachChild(Consumer<LightPattern> action)
+    {
+        action.accept(startPattern);
+        action.accept(endPattern);
+    }
+
     @Override
     public void applyTo(LEDReader reader, LEDWriter writer)
     {
         int length = reader.getLength();
-        Color[] bufferA = new Color[length], bufferB = new Color[length];
+        bufferA.resize(length);
+        bufferB.resize(length);
         
         // Apply the patterns to the buffers.
-        startPattern.applyTo(reader, (i, r, g, b) -> bufferA[i] = new Color(r, g, b));
-        endPattern.applyTo(reader, (i, r, g, b) -> bufferB[i] = new Color(r, g, b));
+        startPattern.render(reader, bufferA);
+        endPattern.render(reader, bufferB);
 
         // Apply the new transition.
         applyTransition(length, bufferA, bufferB, writer);
     }
-    public abstract void applyTransition(int length, Color[] startBuffer, Color[] endBuffer, LEDWriter writer);
+    /** Combines the two buffers into the final output. The buffers hold packed colors (see ColorHelper.pack()). */
+    public abstract void applyTransition(int length, LightBuffer startBuffer, LightBuffer endBuffer, LEDWriter writer);
 
     public abstract boolean isComplete();
 }
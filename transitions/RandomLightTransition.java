@@ -4,11 +4,15 @@ import java.util.Random;
 
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
+import betterlights.LightBuffer;
 
 /** Transition between two patterns by randomly changing a certain number of pixels per tick. */
 public class RandomLightTransition extends LightTransition
 {
     private Random rand = new Random();
+    private long seed;
+    private boolean seeded;
 
     private int ppt = 1;
     private Color middleColor;
@@ -17,6 +21,13 @@ public class RandomLightTransition extends LightTransition
 
     /** Sets the amount of pixels to swap during every tick. Higher numbers complete the transition faster. */
     public RandomLightTransition withPixelsPerTick(int ppt) { this.ppt = ppt; return this; }
+    /** Makes the pixels swap in the same order every time the transition runs. */
+    public RandomLightTransition withSeed(long seed)
+    {
+        this.seed = seed;
+        seeded = true;
+        return this;
+    }
 
     /**
      * Makes the randomizer jump to this color as an intermediate before switching to the second pattern.
@@ -65,14 +76,27 @@ public class RandomLightTransition extends LightTransition
     private int done, unset;
     private boolean initialized;
 
+    // The order pixels are swapped in. It's shuffled as we go, so everything
+    // before the unset pixels has been picked and everything after has not.
+    private int[] order;
+
     @Override
-    public void applyTransition(int length, Color[] startBuffer, Color[] endBuffer, LEDWriter writer)
+    public void applyTransition(int length, LightBuffer startBuffer, LightBuffer endBuffer, LEDWriter writer)
     {
         if (!initialized)
         {
-            // Populate the state list with all possible indices.
-            pixelStates = new int[length];
-            for (int i = 0; i < length; i++) pixelStates[i] = -1;
+            // Populate the state list with all possible indices. Only reallocate if the length changed.
+            if (pixelStates == null || pixelStates.length != length)
+            {
+                pixelStates = new int[length];
+                order = new int[length];
+            }
+            for (int i = 0; i < length; i++)
+            {
+                pixelStates[i] = -1;
+                order[i] = i;
+            }
+            if (seeded) rand.setSeed(seed);
             unset = length;
             done = 0;
             initialized = true;
@@ -82,19 +106,12 @@ public class RandomLightTransition extends LightTransition
         // Pick a certain number of pixels to swap.
         for (int i = 0; i < ppt && unset > 0; i++)
         {
-            // Calculate a random index out of the unset pixels, then find that corresponding index.
-            int relativeIndex = rand.nextInt(unset);
-            int index = 0;
-            while (index < length)
-            {
-                if (pixelStates[index] == -1)
-                {
-                    // Found an unset pixel.
-                    relativeIndex--;
-                    if (relativeIndex < 0) break; // Found THE unset pixel.
-                }
-                index++;
-            }
+            // One step of a Fisher-Yates shuffle. Pick a random unset pixel and swap it to the front of the unset ones.
+            int next = length - unset;
+            int pick = next + rand.nextInt(unset);
+            int index = order[pick];
+            order[pick] = order[next];
+            order[next] = index;
 
             // Update its state.
             pixelStates[index] = middleTime;
@@ -103,25 +120,26 @@ public class RandomLightTransition extends LightTransition
         }
 
         // Now properly set each pixel.
+        int middle = middleColor == null ? 0 : ColorHelper.pack(middleColor);
         for (int i = 0; i < length; i++)
         {
             int state = pixelStates[i];
-            Color outputColor;
+            int outputColor;
 
-            if (state == -1) outputColor = startBuffer[i];
-            else if (state == 0) outputColor = endBuffer[i];
+            if (state == -1) outputColor = startBuffer.get(i);
+            else if (state == 0) outputColor = endBuffer.get(i);
             else
             {
                 // Interpolate, perchance?
-                if (smoothFade) outputColor = colorLerp(endBuffer[i], middleColor, (double)state / middleTime);
-                else outputColor = middleColor;
+                if (smoothFade) outputColor = colorLerp(endBuffer.get(i), middle, (double)state / middleTime);
+                else outputColor = middle;
 
                 state--;
                 pixelStates[i] = state;
                 if (state == 0) done++;
             }
 
-            writer.setLED(i, outputColor);
+            ColorHelper.write(writer, i, outputColor);
         }
     }
 
@@ -2,6 +2,8 @@ package betterlights.transitions;
 
 import edu.wpi.first.wpilibj.LEDWriter;
 import edu.wpi.first.wpilibj.util.Color;
+import betterlights.ColorHelper;
+import betterlights.LightBuffer;
 import betterlights.patterns.LightPattern;
 
 public class SwipeLightTransition extends LightTransition
@@ -44,9 +46,10 @@ public class SwipeLightTransition extends LightTransition
     }
 
     @Override
-    public void applyTransition(int length, Color[] startBuffer, Color[] endBuffer, LEDWriter writer)
+    public void applyTransition(int length, LightBuffer startBuffer, LightBuffer endBuffer, LEDWriter writer)
     {
         this.length = length;
+        int middle = middleColor == null ? 0 : ColorHelper.pack(middleColor);
 
         if (reversed)
         {
@@ -55,11 +58,11 @@ public class SwipeLightTransition extends LightTransition
 
             for (int i = 0; i < length; i++)
             {
-                Color outputColor;
-                if (i < oldIndex) outputColor = startBuffer[i];
-                else if (i >= newIndex) outputColor = endBuffer[i];
-                else outputColor = middleColor;
-                writer.setLED(i, outputColor);
+                int outputColor;
+                if (i < oldIndex) outputColor = startBuffer.get(i);
+                else if (i >= newIndex) outputColor = endBuffer.get(i);
+                else outputColor = middle;
+                ColorHelper.write(writer, i, outputColor);
             }
         }
         else
@@ -69,11 +72,11 @@ public class SwipeLightTransition extends LightTransition
 
             for (int i = 0; i < length; i++)
             {
-                Color outputColor;
-                if (i < newIndex) outputColor = endBuffer[i];
-                else if (i >= oldIndex) outputColor = startBuffer[i];
-                else outputColor = middleColor;
-                writer.setLED(i, outputColor);
+                int outputColor;
+                if (i < newIndex) outputColor = endBuffer.get(i);
+                else if (i >= oldIndex) outputColor = startBuffer.get(i);
+                else outputColor = middle;
+                ColorHelper.write(writer, i, outputColor);
             }
         }
     }